@@ -2,6 +2,8 @@ package compr.par;
 
 import compr.seq.Compressor;
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Georgi Krastev <joro.kr.21@gmail.com>
@@ -9,6 +11,7 @@ import java.io.File;
 public abstract class ParCompressor implements Compressor {
 
     private int tasks; // number of tasks
+    private ExecutorService executor; // shared by all jobs, null for a pool per job
 
     protected ParCompressor(int tasks) {
         this.tasks = tasks;
@@ -26,4 +29,36 @@ public abstract class ParCompressor implements Compressor {
     public void setTasks(int tasks) {
         this.tasks = tasks;
     }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs the tasks of every job, so that its threads are
+     * shared instead of a pool created for each job, or null; it is not shut
+     * down by this object
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the shared executor, or a new pool of <code>tasks</code>
+     * threads to be released with <code>releaseExecutor</code>
+     */
+    protected ExecutorService acquireExecutor() {
+        ExecutorService exec = executor;
+        return exec != null ? exec : Executors.newFixedThreadPool(tasks);
+    }
+
+    /**
+     * Shuts down an executor returned by <code>acquireExecutor</code>, unless
+     * it is the shared one.
+     */
+    protected void releaseExecutor(ExecutorService exec) {
+        if (exec != executor) {
+            exec.shutdown();
+        }
+    }
 }
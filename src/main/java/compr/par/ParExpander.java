@@ -0,0 +1,64 @@
+package compr.par;
+
+import compr.seq.Expander;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public abstract class ParExpander implements Expander {
+
+    private int tasks; // number of tasks
+    private ExecutorService executor; // shared by all jobs, null for a pool per job
+
+    protected ParExpander(int tasks) {
+        this.tasks = tasks;
+    }
+
+    @Override
+    public void expand(String fin, String fout) throws Exception {
+        expand(new File(fin), new File(fout));
+    }
+
+    public int getTasks() {
+        return tasks;
+    }
+
+    public void setTasks(int tasks) {
+        this.tasks = tasks;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs the tasks of every job, so that its threads are
+     * shared instead of a pool created for each job, or null; it is not shut
+     * down by this object
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the shared executor, or a new pool of <code>tasks</code>
+     * threads to be released with <code>releaseExecutor</code>
+     */
+    protected ExecutorService acquireExecutor() {
+        ExecutorService exec = executor;
+        return exec != null ? exec : Executors.newFixedThreadPool(tasks);
+    }
+
+    /**
+     * Shuts down an executor returned by <code>acquireExecutor</code>, unless
+     * it is the shared one.
+     */
+    protected void releaseExecutor(ExecutorService exec) {
+        if (exec != executor) {
+            exec.shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package compr.par.ans;
+
+import io.bitstream.BitReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * Decodes one block of a tANS coded file and writes it at its offset in the
+ * output file, so that blocks can be decoded concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AnsDecoder implements Callable<Void> {
+
+    private final File fin, fout;
+    private final long off, end, outOff;
+    private final int len;
+    private final AnsTable table;
+    private final boolean mapped;
+
+    /**
+     * @param off is the byte offset of the block in the input file
+     * @param end is the byte offset after the block
+     * @param len is the length of the block
+     * @param mapped tells whether to map the block instead of reading it
+     */
+    public AnsDecoder(File fin, long off, long end, int len, File fout, long outOff,
+            AnsTable table, boolean mapped) {
+        this.fin = fin;
+        this.off = off;
+        this.end = end;
+        this.len = len;
+        this.fout = fout;
+        this.outOff = outOff;
+        this.table = table;
+        this.mapped = mapped;
+    }
+
+    @Override
+    public Void call() throws IOException {
+        FileChannel in = new RandomAccessFile(fin, "r").getChannel();
+        FileChannel out = new RandomAccessFile(fout, "rw").getChannel();
+        try {
+            int size = (int) (end - off);
+            ByteBuffer src;
+            if (mapped) {
+                src = in.map(FileChannel.MapMode.READ_ONLY, off, size);
+            } else {
+                src = ByteBuffer.allocate(size);
+                while (src.hasRemaining()) {
+                    if (in.read(src, off + src.position()) < 0) {
+                        break;
+                    }
+                }
+
+                src.flip();
+            }
+
+            BitReader bits = new BitReader(src);
+            byte[] buf = new byte[len];
+            table.decode(bits, buf, 0, len);
+            if (bits.available() < 0) {
+                throw new IOException("Unexpected end of block in " + fin.getName());
+            }
+
+            ByteBuffer dst = ByteBuffer.wrap(buf);
+            for (long pos = outOff; dst.hasRemaining();) {
+                pos += out.write(dst, pos);
+            }
+
+            return null;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package compr.par.ans;
+
+import io.bitstream.BitWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * Encodes one block of the input file into its own bytes, so that blocks can
+ * be encoded concurrently and then written in order.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AnsEncoder implements Callable<AnsEncoder> {
+
+    private final File fin;
+    private final long off;
+    private final int len;
+    private final AnsTable table;
+    private final boolean mapped;
+    private BitWriter bits;
+
+    /**
+     * @param mapped tells whether to map the block instead of reading it
+     */
+    public AnsEncoder(File fin, long off, int len, AnsTable table, boolean mapped) {
+        this.fin = fin;
+        this.off = off;
+        this.len = len;
+        this.table = table;
+        this.mapped = mapped;
+    }
+
+    @Override
+    public AnsEncoder call() throws IOException {
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            ByteBuffer src;
+            if (mapped) {
+                src = in.map(FileChannel.MapMode.READ_ONLY, off, len);
+            } else {
+                src = ByteBuffer.allocate(len);
+                while (src.hasRemaining()) {
+                    if (in.read(src, off + src.position()) < 0) {
+                        throw new IOException("Unexpected end of " + fin.getName());
+                    }
+                }
+
+                src.flip();
+            }
+
+            bits = new BitWriter(len / 2);
+            table.encode(src, bits);
+            bits.flush();
+            return this;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the encoded bytes of this block to <code>out</code>.
+     *
+     * @param out is the channel the block is written to
+     * @param position is the file position of the block
+     * @return the file position after the block
+     * @throws IOException
+     */
+    public long writeTo(FileChannel out, long position) throws IOException {
+        return bits.drain(out, position);
+    }
+
+    public long getOffset() {
+        return off;
+    }
+
+    public int getLength() {
+        return len;
+    }
+}
@@ -0,0 +1,131 @@
+package compr.par.ans;
+
+import compr.par.ParExpander;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import test.TimeLogger;
+
+/**
+ * Expands a file compressed by <code>ParAnsCompressor</code>, decoding its
+ * blocks in parallel.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AnsExpander extends ParExpander {
+
+    private static final TimeLogger logger = TimeLogger.getLogger();
+    private boolean mapped; // memory-mapped input
+
+    public AnsExpander(int tasks) {
+        super(tasks);
+    }
+
+    public AnsExpander() {
+        this(1);
+    }
+
+    @Override
+    public void expand(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
+        logger.resetTime();
+        logger.log(MessageFormat.format("Starting tANS extraction of file {0} with {1} task{2}",
+                fin.getName(), getTasks(), getTasks() > 1 ? "s" : ""));
+        AnsHeader header = AnsHeader.read(fin);
+        AnsTable table;
+        try {
+            table = new AnsTable(header.getNorm(), header.getLog());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
+
+        logger.log("Decoding table completed");
+        RandomAccessFile out = new RandomAccessFile(fout, "rw");
+        try {
+            out.setLength(header.getLength());
+        } finally {
+            out.close();
+        }
+
+        ExecutorService exec = acquireExecutor();
+        try {
+            Collection<AnsDecoder> decoders = new ArrayList<AnsDecoder>(header.getBlocks());
+            long data = header.size(), end = fin.length(), off = 0;
+            for (int b = 0; b < header.getBlocks(); b++) {
+                long blockEnd = b + 1 < header.getBlocks() ? data + header.getOffset(b + 1) : end;
+                decoders.add(new AnsDecoder(fin, data + header.getOffset(b), blockEnd,
+                        header.getLength(b), fout, off, table, isMapped()));
+                off += header.getLength(b);
+            }
+
+            for (Future<Void> decoder : exec.invokeAll(decoders)) {
+                decoder.get();
+            }
+        } finally {
+            releaseExecutor(exec);
+        }
+
+        logger.log("Extraction completed to file " + fout.getName());
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("input").withDescription("input file (*required)").create("i");
+        Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("output").withDescription("output file").create("o");
+        Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
+                .withType(Integer.class).withLongOpt("tasks")
+                .withDescription("number of concurrent tasks").create("t");
+        Option nio = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("nio")
+                .withDescription("use memory-mapped input").create("n");
+        Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
+                .withDescription("indicate only progress").create("q");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(fout);
+        options.addOption(tasks);
+        options.addOption(nio);
+        options.addOption(quiet);
+        CommandLineParser parser = new BasicParser();
+        AnsExpander extr = new AnsExpander();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            logger.setQuiet(cmd.hasOption("q"));
+            String t = cmd.getOptionValue("t");
+            String in = cmd.getOptionValue("i");
+            String out = cmd.getOptionValue("o");
+            out = out == null ? in + ".out" : out;
+            extr.setTasks(t == null ? 1 : Integer.parseInt(t));
+            extr.setMapped(cmd.hasOption("n"));
+            extr.expand(in, out);
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("java AnsExpander", "options:", options,
+                    "\nExtract the tANS coded input file to the output file\n"
+                    + "with -t tasks.\n");
+        }
+    }
+}
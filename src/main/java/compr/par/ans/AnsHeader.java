@@ -0,0 +1,156 @@
+package compr.par.ans;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header of a tANS coded file:
+ * <PRE>
+ * magic   4 bytes   0x89 'A' 'N' 'S'
+ * version 1 byte    1
+ * log     1 byte    base 2 logarithm of the number of states
+ * length  8 bytes   uncompressed length
+ * counts  2 * 256   normalized count of each byte
+ * blocks  4 bytes   number of blocks
+ * index   12 bytes  per block: byte offset (8) and uncompressed length (4)
+ * data              blocks in order, each padded to a whole byte
+ * </PRE>
+ * Byte offsets are relative to the start of the data.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AnsHeader {
+
+    public static final byte[] MAGIC = {(byte) 0x89, 'A', 'N', 'S'};
+    public static final int VERSION = 1;
+    private final int log;
+    private final long length;
+    private final int[] norm;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    public AnsHeader(long length, int[] norm, int log, int blocks) {
+        this(length, norm, log, new long[blocks], new int[blocks]);
+    }
+
+    private AnsHeader(long length, int[] norm, int log, long[] offsets, int[] lengths) {
+        this.length = length;
+        this.norm = norm;
+        this.log = log;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * @param fin is the tANS coded file
+     * @return its header
+     * @throws IOException if it is not a tANS coded file of a supported
+     * version
+     */
+    public static AnsHeader read(File fin) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fin)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a tANS coded file: " + fin.getName());
+            }
+
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+
+            int log = in.readUnsignedByte();
+            long length = in.readLong();
+            int[] norm = new int[AnsTable.RANGE];
+            for (int sym = 0; sym < AnsTable.RANGE; sym++) {
+                norm[sym] = in.readUnsignedShort();
+            }
+
+            int blocks = in.readInt();
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                offsets[b] = in.readLong();
+                lengths[b] = in.readInt();
+            }
+
+            return new AnsHeader(length, norm, log, offsets, lengths);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the header at the beginning of <code>fout</code>, leaving the
+     * data after it intact.
+     *
+     * @param fout is the tANS coded file
+     * @throws IOException
+     */
+    public void write(File fout) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(fout, "rw");
+        try {
+            byte[] header = new byte[size()];
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            buf.put(MAGIC).put((byte) VERSION).put((byte) log).putLong(length);
+            for (int sym = 0; sym < AnsTable.RANGE; sym++) {
+                buf.putShort((short) norm[sym]);
+            }
+
+            buf.putInt(getBlocks());
+            for (int b = 0; b < getBlocks(); b++) {
+                buf.putLong(offsets[b]).putInt(lengths[b]);
+            }
+
+            out.write(header);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the size of the header in bytes, which is also the byte offset
+     * of the data
+     */
+    public int size() {
+        return MAGIC.length + 2 + 8 + 2 * AnsTable.RANGE + 4 + 12 * getBlocks();
+    }
+
+    public int getLog() {
+        return log;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int[] getNorm() {
+        return norm;
+    }
+
+    public int getBlocks() {
+        return offsets.length;
+    }
+
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    public int getLength(int block) {
+        return lengths[block];
+    }
+
+    public void setBlock(int block, long offset, int length) {
+        offsets[block] = offset;
+        lengths[block] = length;
+    }
+}
@@ -0,0 +1,227 @@
+package compr.par.ans;
+
+import io.bitstream.BitReader;
+import io.bitstream.BitWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Coding tables of table-based asymmetric numeral systems (tANS). The
+ * frequencies of the bytes are normalized to a total of <code>2^log</code>,
+ * and every byte gets as many of the <code>2^log</code> states as its
+ * normalized count, spread across the table. A state is a fraction of a bit
+ * more precise than a Huffman code, so a byte of probability <code>p</code>
+ * costs close to <code>-log2(p)</code> bits even above 50%.
+ * <P>
+ * The encoder codes a block from its last byte to its first, and the decoder
+ * from the first to the last: every coded byte emits the low bits of the
+ * state, which the decoder reads back after the byte. The emitted bits are
+ * kept until the block is done and then written in decoding order, after the
+ * final state.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AnsTable {
+
+    public static final int RANGE = 256; // byte values
+    public static final int MIN_LOG = 9, MAX_LOG = 15, DEFAULT_LOG = 12;
+    private static final ThreadLocal<int[]> CHUNKS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[0];
+        }
+    };
+    private final int log;
+    private final int[] norm;
+    private final int[] cumul = new int[RANGE + 1]; // first encoding state of a byte
+    private final int[] bits = new int[RANGE];      // most bits emitted for a byte
+    private final int[] encode; // next state by byte and reduced state
+    private final int[] decode; // by state: base of the next state, bits and byte
+
+    /**
+     * @param norm holds the normalized count of each byte
+     * @param log is the base 2 logarithm of the number of states
+     * @throws IllegalArgumentException if the counts do not add up to
+     * <code>2^log</code>
+     */
+    public AnsTable(int[] norm, int log) {
+        if (log < MIN_LOG || log > MAX_LOG) {
+            throw new IllegalArgumentException("Table log out of range: " + log);
+        }
+
+        int size = 1 << log, sum = 0;
+        for (int sym = 0; sym < RANGE; sym++) {
+            if (norm[sym] < 0) {
+                throw new IllegalArgumentException("Negative count of byte " + sym);
+            }
+
+            cumul[sym] = sum;
+            sum += norm[sym];
+        }
+
+        cumul[RANGE] = sum;
+        if (sum != size && sum != 0) {
+            throw new IllegalArgumentException("Counts add up to " + sum + " instead of " + size);
+        }
+
+        this.log = log;
+        this.norm = norm.clone();
+        encode = new int[size];
+        decode = new int[size];
+        if (sum > 0) {
+            build(spread(norm, log));
+        }
+    }
+
+    /**
+     * Scales frequencies to normalized counts of <code>2^log</code> in total,
+     * so that every byte that occurs keeps a count of at least 1.
+     *
+     * @param freq holds the frequency of each byte
+     * @param log is the base 2 logarithm of the number of states
+     * @return the normalized counts, all 0 if no byte occurs
+     */
+    public static int[] normalize(long[] freq, int log) {
+        int[] norm = new int[RANGE];
+        long total = 0;
+        int largest = 0;
+        for (int sym = 0; sym < RANGE; sym++) {
+            total += freq[sym];
+            if (freq[sym] > freq[largest]) {
+                largest = sym;
+            }
+        }
+
+        if (total == 0) {
+            return norm;
+        }
+
+        int size = 1 << log, sum = 0;
+        for (int sym = 0; sym < RANGE; sym++) {
+            if (freq[sym] > 0) {
+                norm[sym] = (int) Math.max(Math.round((double) freq[sym] * size / total), 1);
+                sum += norm[sym];
+            }
+        }
+
+        // the largest count absorbs the rounding, or gives up to rare bytes
+        norm[largest] += size - sum;
+        while (norm[largest] < 1) {
+            int most = largest == 0 ? 1 : 0;
+            for (int sym = 0; sym < RANGE; sym++) {
+                if (sym != largest && norm[sym] > norm[most]) {
+                    most = sym;
+                }
+            }
+
+            norm[most]--;
+            norm[largest]++;
+        }
+
+        return norm;
+    }
+
+    /**
+     * @return the byte of each state, spread with a step co-prime to the size
+     */
+    private static byte[] spread(int[] norm, int log) {
+        int size = 1 << log, mask = size - 1, step = (size >>> 1) + (size >>> 3) + 3;
+        byte[] spread = new byte[size];
+        for (int sym = 0, pos = 0; sym < RANGE; sym++) {
+            for (int i = 0; i < norm[sym]; i++) {
+                spread[pos] = (byte) sym;
+                pos = (pos + step) & mask;
+            }
+        }
+
+        return spread;
+    }
+
+    private void build(byte[] spread) {
+        int size = 1 << log;
+        int[] next = norm.clone();
+        for (int u = 0; u < size; u++) {
+            int sym = spread[u] & 0xff, x = next[sym]++;
+            int nb = log - highBit(x);
+            decode[u] = ((x << nb) - size) << 16 | nb << 8 | sym;
+            encode[cumul[sym] + x - norm[sym]] = size + u;
+        }
+
+        for (int sym = 0; sym < RANGE; sym++) {
+            bits[sym] = norm[sym] > 0 ? log - highBit(norm[sym]) : 0;
+        }
+    }
+
+    private static int highBit(int x) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(x);
+    }
+
+    /**
+     * Codes the remaining bytes of <code>src</code>, which must all have a
+     * count. The position of <code>src</code> is not changed.
+     *
+     * @param src holds the bytes of a block
+     * @param out is the writer of the final state and the emitted bits
+     */
+    public void encode(ByteBuffer src, BitWriter out) {
+        int off = src.position(), len = src.remaining(), size = 1 << log;
+        int[] chunks = CHUNKS.get();
+        if (chunks.length < len) {
+            chunks = new int[len];
+            CHUNKS.set(chunks);
+        }
+
+        int[] norm = this.norm, cumul = this.cumul, bits = this.bits, encode = this.encode;
+        int x = size;
+        for (int i = len - 1; i >= 0; i--) {
+            int sym = src.get(off + i) & 0xff, k = norm[sym], nb = bits[sym];
+            if (x < k << nb) {
+                nb--;
+            }
+
+            chunks[i] = (x & ((1 << nb) - 1)) << 5 | nb;
+            x = encode[cumul[sym] + (x >>> nb) - k];
+        }
+
+        out.write(log, x - size);
+        for (int i = 0; i < len; i++) {
+            int nb = chunks[i] & 31;
+            if (nb > 0) {
+                out.write(nb, chunks[i] >>> 5);
+            }
+        }
+    }
+
+    /**
+     * Decodes <code>len</code> bytes coded with <code>encode</code>.
+     *
+     * @param in is the reader of the block
+     * @param dst receives the bytes
+     * @param off is the index of the first byte in <code>dst</code>
+     * @param len is the number of bytes
+     */
+    public void decode(BitReader in, byte[] dst, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+
+        int[] decode = this.decode;
+        int log = this.log, x = in.read(log);
+        for (int i = off, end = off + len; i < end; i++) {
+            int e = decode[x], nb = (e >>> 8) & 0xff;
+            dst[i] = (byte) e;
+            x = (e >>> 16) + (in.peek(log) >>> (log - nb));
+            in.consume(nb);
+        }
+    }
+
+    public int getLog() {
+        return log;
+    }
+
+    /**
+     * @return the normalized count of each byte
+     */
+    public int[] getNorm() {
+        return norm.clone();
+    }
+}
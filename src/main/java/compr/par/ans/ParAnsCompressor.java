@@ -0,0 +1,225 @@
+package compr.par.ans;
+
+import compr.par.ParCompressor;
+import compr.par.huff.ChunkCursor;
+import compr.par.huff.Counter;
+import compr.par.huff.ParHuffCompressor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import test.TimeLogger;
+
+/**
+ * Compresses a file with table-based asymmetric numeral systems, in blocks
+ * coded in parallel with a table shared by the whole file. The frequencies
+ * are counted by the same parallel <code>Counter</code> tasks as for Huffman
+ * coding.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class ParAnsCompressor extends ParCompressor {
+
+    public static final int BLOCK = ParHuffCompressor.BLOCK;
+    private static final TimeLogger logger = TimeLogger.getLogger();
+    private boolean mapped; // memory-mapped input
+    private int log = AnsTable.DEFAULT_LOG; // base 2 logarithm of the number of states
+    private boolean histogram; // count with the Histogram kernel
+
+    public ParAnsCompressor(int tasks) {
+        super(tasks);
+    }
+
+    public ParAnsCompressor() {
+        this(1);
+    }
+
+    @Override
+    public void compress(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
+        logger.resetTime();
+        logger.log(MessageFormat.format("Starting tANS compression of file {0} with {1} task{2}",
+                fin.getName(), getTasks(), getTasks() > 1 ? "s" : ""));
+        AnsTable table = makeTable(fin);
+        encode(fin, fout, table);
+    }
+
+    private AnsTable makeTable(File fin) throws InterruptedException, ExecutionException {
+        int tasks = getTasks();
+        AtomicLong[] freqTable = new AtomicLong[AnsTable.RANGE + 1];
+        for (int sym = 0; sym < freqTable.length; sym++) {
+            freqTable[sym] = new AtomicLong();
+        }
+
+        ChunkCursor chunks = new ChunkCursor(fin.length(), Counter.CHUNK);
+        Collection<Counter> counters = new ArrayList<Counter>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            counters.add(new Counter(fin, t, tasks, chunks, freqTable, isMapped(),
+                    isHistogram()));
+        }
+
+        ExecutorService exec = acquireExecutor();
+        try {
+            for (Future<Void> counter : exec.invokeAll(counters)) {
+                counter.get();
+            }
+        } finally {
+            releaseExecutor(exec);
+        }
+
+        long[] freq = new long[AnsTable.RANGE];
+        for (int sym = 0; sym < AnsTable.RANGE; sym++) {
+            freq[sym] = freqTable[sym].get();
+        }
+
+        AnsTable table = new AnsTable(AnsTable.normalize(freq, getLog()), getLog());
+        logger.log("Coding table completed");
+        return table;
+    }
+
+    /**
+     * Encodes the blocks of the input and writes them in order.
+     */
+    private void encode(File fin, File fout, AnsTable table)
+            throws IOException, InterruptedException, ExecutionException {
+        int tasks = getTasks();
+        ExecutorService exec = acquireExecutor();
+        Queue<Future<AnsEncoder>> encoders = new LinkedList<Future<AnsEncoder>>();
+        FileChannel out = new RandomAccessFile(fout, "rw").getChannel();
+        try {
+            long len = fin.length();
+            int count = (int) ((len + BLOCK - 1) / BLOCK);
+            AnsHeader header = new AnsHeader(len, table.getNorm(), getLog(), count);
+            long data = header.size(), pos = data; // the header is written once the index is known
+            out.truncate(0);
+            for (int b = 0, next = 0; b < count; b++) {
+                for (; next < count && next < b + 2 * tasks; next++) {
+                    long off = (long) next * BLOCK;
+                    encoders.add(exec.submit(new AnsEncoder(fin, off,
+                            (int) Math.min(len - off, BLOCK), table, isMapped())));
+                }
+
+                AnsEncoder encoder = encoders.remove().get();
+                header.setBlock(b, pos - data, encoder.getLength());
+                pos = encoder.writeTo(out, pos);
+            }
+
+            header.write(fout);
+            long ratio = Math.round((double) fout.length() / Math.max(len, 1) * 100);
+            logger.log(MessageFormat.format(
+                    "Compression completed to file {0} with ratio {1}%",
+                    fout.getName(), ratio));
+        } finally {
+            for (Future<AnsEncoder> encoder : encoders) {
+                encoder.cancel(true);
+            }
+
+            releaseExecutor(exec);
+            out.close();
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param histogram tells whether to count with the <code>Histogram</code>
+     * kernel, or with the plain loop, which is faster unless the input has
+     * long runs of the same byte
+     */
+    public void setHistogram(boolean histogram) {
+        this.histogram = histogram;
+    }
+
+    public int getLog() {
+        return log;
+    }
+
+    /**
+     * @param log is the base 2 logarithm of the number of states, between
+     * <code>AnsTable.MIN_LOG</code> and <code>AnsTable.MAX_LOG</code>; more
+     * states code closer to the entropy, fewer fit better in the cache
+     */
+    public void setLog(int log) {
+        if (log < AnsTable.MIN_LOG || log > AnsTable.MAX_LOG) {
+            throw new IllegalArgumentException("Table log out of range: " + log);
+        }
+
+        this.log = log;
+    }
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("input").withDescription("input file (*required)").create("i");
+        Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("output").withDescription("output file").create("o");
+        Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
+                .withType(Integer.class).withLongOpt("tasks")
+                .withDescription("number of concurrent tasks").create("t");
+        Option nio = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("nio")
+                .withDescription("use memory-mapped input").create("n");
+        Option log = OptionBuilder.isRequired(false).hasArg().withArgName("bits")
+                .withType(Integer.class).withLongOpt("log")
+                .withDescription("base 2 logarithm of the number of states (9-15)").create("l");
+        Option histogram = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("histogram")
+                .withDescription("count with the sub-table histogram kernel").create("g");
+        Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
+                .withDescription("indicate only progress").create("q");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(fout);
+        options.addOption(tasks);
+        options.addOption(nio);
+        options.addOption(log);
+        options.addOption(histogram);
+        options.addOption(quiet);
+        CommandLineParser parser = new BasicParser();
+        ParAnsCompressor compr = new ParAnsCompressor();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            logger.setQuiet(cmd.hasOption("q"));
+            String t = cmd.getOptionValue("t");
+            String in = cmd.getOptionValue("i");
+            String out = cmd.getOptionValue("o");
+            out = out == null ? in + ".ans" : out;
+            compr.setTasks(t == null ? 1 : Integer.parseInt(t));
+            compr.setMapped(cmd.hasOption("n"));
+            compr.setHistogram(cmd.hasOption("g"));
+            String l = cmd.getOptionValue("l");
+            compr.setLog(l == null ? AnsTable.DEFAULT_LOG : Integer.parseInt(l));
+            compr.compress(in, out);
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("java ParAnsCompressor", "options:", options,
+                    "\nCompress the input file to the output file\n"
+                    + "using tANS coding with -t tasks.\n");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package compr.par.huff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the blocks of the input read while counting, so that the encoder does
+ * not have to read the input again. Blocks are kept on the heap up to a
+ * memory budget and spilled to a temporary file beyond it. Each block is
+ * taken once, which releases its memory.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class BlockCache {
+
+    private final int blockSize;
+    private final long budget;  // in bytes
+    private final byte[][] blocks;
+    private long used;          // in bytes
+    private File spill;
+    private FileChannel channel;
+
+    public BlockCache(int blocks, int blockSize, long budget) {
+        this.blocks = new byte[blocks][];
+        this.blockSize = blockSize;
+        this.budget = budget;
+    }
+
+    public int getBlocks() {
+        return blocks.length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param block is the index of the block
+     * @param data holds the bytes of the block, not copied
+     * @param len is the length of the block
+     * @throws IOException if the block cannot be spilled
+     */
+    public void put(int block, byte[] data, int len) throws IOException {
+        FileChannel out;
+        synchronized (this) {
+            if (used + data.length <= budget) {
+                blocks[block] = data;
+                used += data.length;
+                return;
+            }
+
+            if (channel == null) {
+                spill = File.createTempFile("hfm", ".blocks");
+                spill.deleteOnExit();
+                channel = new RandomAccessFile(spill, "rw").getChannel();
+            }
+
+            out = channel;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+        long pos = (long) block * blockSize;
+        while (buf.hasRemaining()) {
+            pos += out.write(buf, pos);
+        }
+    }
+
+    /**
+     * Takes a block out of the cache.
+     *
+     * @param block is the index of the block
+     * @param len is the length of the block
+     * @return the bytes of the block
+     * @throws IOException if the block cannot be read back
+     */
+    public byte[] take(int block, int len) throws IOException {
+        FileChannel in;
+        synchronized (this) {
+            byte[] data = blocks[block];
+            if (data != null) {
+                blocks[block] = null;
+                used -= data.length;
+                return data;
+            }
+
+            in = channel;
+        }
+
+        if (in == null) {
+            throw new IOException("Block " + block + " is not cached");
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        long pos = (long) block * blockSize;
+        while (buf.hasRemaining()) {
+            int l = in.read(buf, pos);
+            if (l < 0) {
+                throw new IOException("Block " + block + " is not cached");
+            }
+
+            pos += l;
+        }
+
+        return buf.array();
+    }
+
+    /**
+     * Releases the cached blocks and deletes the spill file.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = null;
+        }
+
+        used = 0;
+        if (channel != null) {
+            channel.close();
+            spill.delete();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package compr.par.huff;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the chunks of an input to concurrent tasks, each chunk once. All
+ * chunks can be handed out, or only a sample of them spread evenly across the
+ * input.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class ChunkCursor {
+
+    private final AtomicLong next = new AtomicLong(); // next sample to claim
+    private final long length, chunks, samples;
+    private final int chunk;
+
+    /**
+     * @param length is the length of the input
+     * @param chunk is the size of a chunk in bytes
+     */
+    public ChunkCursor(long length, int chunk) {
+        this(length, chunk, 1);
+    }
+
+    /**
+     * @param length is the length of the input
+     * @param chunk is the size of a chunk in bytes
+     * @param fraction is the fraction of the chunks to hand out (0-1], at
+     * least one chunk of a non-empty input
+     */
+    public ChunkCursor(long length, int chunk, double fraction) {
+        if (chunk <= 0 || !(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Invalid chunk size or fraction");
+        }
+
+        this.length = length;
+        this.chunk = chunk;
+        chunks = (length + chunk - 1) / chunk;
+        samples = Math.min(chunks, Math.max(1, (long) Math.ceil(chunks * fraction)));
+    }
+
+    /**
+     * @return the index of the next sample, or -1 if none is left
+     */
+    public long claim() {
+        long s = next.getAndIncrement();
+        return s < samples ? s : -1;
+    }
+
+    /**
+     * @param sample is an index returned by <code>claim</code>
+     * @return the offset of its chunk in the input
+     */
+    public long offset(long sample) {
+        return sample * chunks / samples * chunk;
+    }
+
+    /**
+     * @param sample is an index returned by <code>claim</code>
+     * @return the length of its chunk
+     */
+    public int length(long sample) {
+        return (int) Math.min(chunk, length - offset(sample));
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,150 @@
+package compr.par.huff;
+
+import java.util.Arrays;
+
+/**
+ * Builds the bit table and the canonical code table from symbol frequencies
+ * over primitive arrays. The code lengths are computed in place with the
+ * algorithm of Moffat and Katajainen, which takes linear time once the
+ * frequencies are sorted, and limited with <code>PackageMerge</code> if the
+ * longest code is too long.
+ * <P>
+ * All working arrays are allocated once, so that building tables for many
+ * blocks or files allocates nothing. An instance must not be used
+ * concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class CodeBuilder {
+
+    private static final int SYM_BITS = 9;      // bits to hold a symbol
+    private static final long SYM_MASK = (1 << SYM_BITS) - 1;
+    private final long[] keys = new long[ByteSym.RANGE]; // freq << SYM_BITS | sym
+    private final long[] tree = new long[ByteSym.RANGE]; // weights, parents and depths
+    private final int[] lengths = new int[ByteSym.RANGE];
+    private final int[] count = new int[ParHuffCompressor.LIMIT_BITS + 1]; // codes per length
+    private final int[] next = new int[ParHuffCompressor.LIMIT_BITS + 1];  // next code per length
+    private final PackageMerge merge
+            = new PackageMerge(ByteSym.RANGE, ParHuffCompressor.LIMIT_BITS);
+
+    /**
+     * Computes the code length of every symbol.
+     *
+     * @param freqTable holds the frequency of each symbol, less than 2^54
+     * @param maxBits is the longest allowed code length
+     * @param bitTable receives the code length of each symbol, 0 if its
+     * frequency is 0
+     * @return the number of symbols with a code
+     */
+    public int makeBitTable(long[] freqTable, int maxBits, byte[] bitTable) {
+        int n = 0;
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            bitTable[sym] = 0;
+            if (freqTable[sym] > 0) {
+                keys[n++] = freqTable[sym] << SYM_BITS | sym;
+            }
+        }
+
+        Arrays.sort(keys, 0, n);
+        for (int i = 0; i < n; i++) {
+            tree[i] = keys[i] >>> SYM_BITS;
+        }
+
+        if (n == 1) {
+            tree[0] = 1;
+        } else if (n > 1) {
+            minimumRedundancy(tree, n);
+        }
+
+        // the lightest symbol has the longest code
+        if (n > 0 && tree[0] > maxBits) {
+            for (int i = 0; i < n; i++) {
+                tree[i] = keys[i] >>> SYM_BITS;
+            }
+
+            merge.lengths(tree, n, maxBits, lengths);
+            for (int i = 0; i < n; i++) {
+                tree[i] = lengths[i];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            bitTable[(int) (keys[i] & SYM_MASK)] = (byte) tree[i];
+        }
+
+        return n;
+    }
+
+    /**
+     * Assigns canonical codes: shorter codes first, and codes of the same
+     * length in the order of the symbols.
+     *
+     * @param bitTable holds the code length of each symbol
+     * @param codeTable receives the code of each symbol
+     */
+    public void makeCodeTable(byte[] bitTable, int[] codeTable) {
+        Arrays.fill(count, 0);
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            count[bitTable[sym]]++;
+        }
+
+        count[0] = 0;
+        for (int bits = 1, code = 0; bits < count.length; bits++) {
+            code = (code + count[bits - 1]) << 1;
+            next[bits] = code;
+        }
+
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            codeTable[sym] = bitTable[sym] > 0 ? next[bitTable[sym]]++ : 0;
+        }
+    }
+
+    /**
+     * Replaces the ascending weights of <code>n &gt; 1</code> symbols by
+     * their code lengths, in place.
+     */
+    private static void minimumRedundancy(long[] a, int n) {
+        // phase 1: build the tree, leaving parent pointers in place of weights
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        // phase 2: turn the parent pointers into internal node depths
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            a[next] = a[(int) a[next]] + 1;
+        }
+
+        // phase 3: turn the internal node depths into leaf depths
+        int avail = 1, used = 0, depth = 0;
+        root = n - 2;
+        for (int next = n - 1; avail > 0; depth++) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+
+            while (avail > used) {
+                a[next--] = depth;
+                avail--;
+            }
+
+            avail = 2 * used;
+            used = 0;
+        }
+    }
+}
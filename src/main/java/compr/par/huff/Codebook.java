@@ -0,0 +1,221 @@
+package compr.par.huff;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Pre-trained code table shared by many files, which are compressed without
+ * counting them and reference the table by its id instead of carrying it.
+ * The id is the CRC-32 of the bit table, which detects a corrupt codebook
+ * file but can collide between different tables.
+ * <P>
+ * Every symbol has a code, so that any input can be coded. Codebooks are
+ * cached by id once loaded, with their decode tables, and the cache is
+ * where the expander looks up the codebook of a file. Only one table can be
+ * cached under an id: loading or training a different table with the id of
+ * a cached one fails, instead of leaving its files to be decoded with the
+ * wrong table.
+ * <P>
+ * A codebook file is:
+ * <PRE>
+ * magic   4 bytes   0x89 'H' 'C' 'B'
+ * version 1 byte    1
+ * id      4 bytes   CRC-32 of the bit table
+ * bits    RANGE     bit table
+ * </PRE>
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Codebook {
+
+    public static final byte[] MAGIC = {(byte) 0x89, 'H', 'C', 'B'};
+    public static final int VERSION = 1;
+    private static final ConcurrentMap<Integer, Codebook> cache =
+            new ConcurrentHashMap<Integer, Codebook>();
+    private final int id;
+    private final byte[] bitTable;
+    private final int[] codeTable;
+    private final DecodeTable table;
+    private volatile MultiDecodeTable multiTable; // built on first use
+
+    private Codebook(byte[] bitTable) {
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            if (bitTable[sym] <= 0) {
+                throw new IllegalArgumentException("No code for symbol " + sym);
+            }
+        }
+
+        this.id = id(bitTable);
+        this.bitTable = bitTable;
+        codeTable = new int[ByteSym.RANGE];
+        new CodeBuilder().makeCodeTable(bitTable, codeTable);
+        table = new DecodeTable(bitTable);
+    }
+
+    /**
+     * Builds a codebook from the frequencies of a corpus. Symbols missing
+     * from the corpus get a frequency of 1, so that every byte has a code.
+     *
+     * @param freqTable holds the frequency of each symbol in the corpus
+     * @param maxBits is the longest code length
+     * @return the codebook, cached by its id
+     * @throws IllegalStateException if a different codebook of the same id
+     * is cached
+     */
+    public static Codebook train(long[] freqTable, int maxBits) {
+        long[] freq = new long[ByteSym.RANGE];
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            freq[sym] = Math.max(freqTable[sym], 1);
+        }
+
+        byte[] bitTable = new byte[ByteSym.RANGE];
+        new CodeBuilder().makeBitTable(freq, maxBits, bitTable);
+        return cache(new Codebook(bitTable));
+    }
+
+    /**
+     * Loads a codebook file, or returns the cached codebook of the same id
+     * with its decode tables.
+     *
+     * @param fin is the codebook file
+     * @return the codebook
+     * @throws IOException if the file is not a valid codebook, or if a
+     * different codebook of the same id is cached
+     */
+    public static Codebook load(File fin) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fin)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a codebook: " + fin.getName());
+            }
+
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported codebook version " + version);
+            }
+
+            int id = in.readInt();
+            byte[] bitTable = new byte[ByteSym.RANGE];
+            in.readFully(bitTable);
+            if (id != id(bitTable)) {
+                throw new IOException("Corrupt codebook " + fin.getName());
+            }
+
+            Codebook book = cache.get(id);
+            if (book != null && !Arrays.equals(book.bitTable, bitTable)) {
+                throw new IOException(String.format(
+                        "Codebook %s collides with the loaded codebook %08x", fin.getName(), id));
+            }
+
+            return book != null ? book : cache(new Codebook(bitTable));
+        } catch (IllegalStateException ex) {
+            throw new IOException(ex.getMessage());
+        } catch (EOFException ex) {
+            throw new IOException("Unexpected end of codebook " + fin.getName());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    public static Codebook load(String fin) throws IOException {
+        return load(new File(fin));
+    }
+
+    /**
+     * @param id is the id of a codebook
+     * @return the cached codebook of that id, or null if none is loaded
+     */
+    public static Codebook get(int id) {
+        return cache.get(id);
+    }
+
+    private static Codebook cache(Codebook book) {
+        Codebook cached = cache.putIfAbsent(book.getId(), book);
+        if (cached == null) {
+            return book;
+        } else if (!Arrays.equals(cached.bitTable, book.bitTable)) {
+            throw new IllegalStateException(
+                    "A different codebook " + cached + " is already loaded");
+        }
+
+        return cached;
+    }
+
+    private static int id(byte[] bitTable) {
+        CRC32 crc = new CRC32();
+        crc.update(bitTable);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the codebook in <code>fout</code>.
+     *
+     * @param fout is the codebook file
+     * @throws IOException
+     */
+    public void write(File fout) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(fout, "rw");
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(MAGIC.length + 1 + 4 + ByteSym.RANGE);
+            buf.put(MAGIC).put((byte) VERSION).putInt(id).put(bitTable);
+            out.setLength(0);
+            out.write(buf.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    public void write(String fout) throws IOException {
+        write(new File(fout));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getBitTable() {
+        return bitTable;
+    }
+
+    public int[] getCodeTable() {
+        return codeTable;
+    }
+
+    /**
+     * @param multi tells whether to return a <code>MultiDecodeTable</code>
+     * @return the decode table of the codebook, shared by all its files
+     */
+    public DecodeTable getDecodeTable(boolean multi) {
+        if (!multi) {
+            return table;
+        }
+
+        MultiDecodeTable multiTable = this.multiTable;
+        if (multiTable == null) {
+            multiTable = new MultiDecodeTable(bitTable);
+            this.multiTable = multiTable; // a race only builds it twice
+        }
+
+        return multiTable;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%08x", id);
+    }
+}
@@ -0,0 +1,272 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import io.bitstream.BitWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Order-1 model of Huffman coding: every byte is coded with the table of its
+ * context, the byte before it, which is 0 at the start of a block. Contexts
+ * with similar or few bytes would not pay for a table of their own, so they
+ * are clustered: starting from the smallest, each context is merged into the
+ * cluster that saves the most estimated bits, if any, counting the table in
+ * the cost.
+ * <P>
+ * The model is written at the start of the data of a file:
+ * <PRE>
+ * tables  8 bits    number of tables - 1
+ * map     256 bytes the table of each context, if more than one table
+ * bits              the bit table of each table, by <code>writeBitTable</code>
+ * </PRE>
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class ContextModel {
+
+    public static final int CONTEXTS = 256;
+    private static final double LN2 = Math.log(2);
+    private final byte[] map;        // table of each context
+    private final byte[][] bitTables;
+    private final int[][] codeTables;
+
+    private ContextModel(byte[] map, byte[][] bitTables, int[][] codeTables) {
+        this.map = map;
+        this.bitTables = bitTables;
+        this.codeTables = codeTables;
+    }
+
+    /**
+     * Clusters the contexts and builds the code table of each cluster.
+     *
+     * @param freq holds the frequencies of each context
+     * @param maxBits is the longest code length
+     * @return the model
+     */
+    public static ContextModel build(long[][] freq, int maxBits) {
+        long[][] cluster = new long[CONTEXTS][];
+        double[] cost = new double[CONTEXTS];
+        int[] of = new int[CONTEXTS];     // cluster of each context
+        int[] order = new int[CONTEXTS];  // non-empty contexts, smallest first
+        long[] total = new long[CONTEXTS];
+        int n = 0;
+        for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                total[ctx] += freq[ctx][sym];
+            }
+
+            if (total[ctx] > 0) {
+                cluster[ctx] = freq[ctx].clone();
+                cost[ctx] = cost(cluster[ctx]);
+                order[n++] = ctx;
+            }
+
+            of[ctx] = ctx;
+        }
+
+        for (int i = 1; i < n; i++) {
+            for (int j = i; j > 0 && total[order[j]] < total[order[j - 1]]; j--) {
+                int swap = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = swap;
+            }
+        }
+
+        long[] merged = new long[ByteSym.RANGE];
+        for (int i = 0; i < n; i++) {
+            int a = order[i], best = -1;
+            double saving = 0;
+            for (int j = 0; j < n; j++) {
+                int b = order[j];
+                if (b == a || cluster[b] == null) {
+                    continue;
+                }
+
+                for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                    merged[sym] = cluster[a][sym] + cluster[b][sym];
+                }
+
+                double s = cost[a] + cost[b] - cost(merged);
+                if (s > saving) {
+                    saving = s;
+                    best = b;
+                }
+            }
+
+            if (best >= 0) {
+                for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                    cluster[best][sym] += cluster[a][sym];
+                }
+
+                cost[best] = cost(cluster[best]);
+                cluster[a] = null;
+                for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+                    if (of[ctx] == a) {
+                        of[ctx] = best;
+                    }
+                }
+            }
+        }
+
+        // number the clusters left, unused contexts take the first table
+        int[] index = new int[CONTEXTS];
+        int tables = 0;
+        for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+            index[ctx] = cluster[ctx] != null ? tables++ : -1;
+        }
+
+        if (tables == 0) {
+            cluster[0] = new long[ByteSym.RANGE];
+            cluster[0][0] = 1;
+            index[0] = tables++;
+        }
+
+        CodeBuilder builder = new CodeBuilder();
+        byte[] map = new byte[CONTEXTS];
+        byte[][] bitTables = new byte[tables][ByteSym.RANGE];
+        int[][] codeTables = new int[tables][ByteSym.RANGE];
+        for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+            int t = index[of[ctx]];
+            map[ctx] = (byte) Math.max(t, 0);
+            if (index[ctx] >= 0) {
+                builder.makeBitTable(cluster[ctx], maxBits, bitTables[index[ctx]]);
+                builder.makeCodeTable(bitTables[index[ctx]], codeTables[index[ctx]]);
+            }
+        }
+
+        return new ContextModel(map, bitTables, codeTables);
+    }
+
+    /**
+     * @return the estimated size in bits of coding <code>freq</code> with its
+     * own table, including the table
+     */
+    private static double cost(long[] freq) {
+        long total = 0;
+        int n = 0;
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            total += freq[sym];
+            n += freq[sym] > 0 ? 1 : 0;
+        }
+
+        double bits = ByteSym.RANGE + 5 * n;
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            if (freq[sym] > 0) {
+                bits += freq[sym] * Math.log((double) total / freq[sym]) / LN2;
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * Reads a model written with <code>write</code>.
+     *
+     * @param in is the reader at the start of the model
+     * @return the model, ready for decoding
+     * @throws IOException if a table is invalid
+     */
+    public static ContextModel read(BitReader in) throws IOException {
+        int tables = in.read(Byte.SIZE) + 1;
+        byte[] map = new byte[CONTEXTS];
+        if (tables > 1) {
+            for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+                map[ctx] = (byte) in.read(Byte.SIZE);
+                if ((map[ctx] & 0xff) >= tables) {
+                    throw new IOException("Context " + ctx + " maps to a missing table");
+                }
+            }
+        }
+
+        byte[][] bitTables = new byte[tables][ByteSym.RANGE];
+        for (int t = 0; t < tables; t++) {
+            HuffHeader.readBitTable(in, bitTables[t]);
+        }
+
+        return new ContextModel(map, bitTables, null);
+    }
+
+    /**
+     * Writes the model in a bitstream.
+     *
+     * @param out is the writer of the bitstream
+     */
+    public void write(BitWriter out) {
+        out.write(Byte.SIZE, bitTables.length - 1);
+        if (bitTables.length > 1) {
+            for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+                out.write(Byte.SIZE, map[ctx]);
+            }
+        }
+
+        for (byte[] bitTable : bitTables) {
+            HuffHeader.writeBitTable(out, bitTable);
+        }
+    }
+
+    /**
+     * Codes the remaining bytes of <code>src</code> as a block, starting in
+     * context 0.
+     *
+     * @param src holds the bytes of the block
+     * @param out is the writer of the codes
+     */
+    public void encode(ByteBuffer src, BitWriter out) {
+        out.encode(src, 0, map, codeTables, bitTables);
+    }
+
+    /**
+     * @param multi tells whether to build <code>MultiDecodeTable</code>s
+     * @return the decode table of each table of the model
+     * @throws IOException if a table is invalid
+     */
+    public DecodeTable[] makeDecodeTables(boolean multi) throws IOException {
+        DecodeTable[] tables = new DecodeTable[bitTables.length];
+        try {
+            for (int t = 0; t < tables.length; t++) {
+                tables[t] = multi
+                        ? new MultiDecodeTable(bitTables[t])
+                        : new DecodeTable(bitTables[t]);
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
+
+        return tables;
+    }
+
+    /**
+     * Decodes a block coded with <code>encode</code>.
+     *
+     * @param in is the reader at the start of the block
+     * @param tables are the tables made by <code>makeDecodeTables</code>
+     * @param dst receives the bytes of the block
+     * @param off is the index of the first byte in <code>dst</code>
+     * @param len is the length of the block
+     * @throws IOException if the block is corrupt
+     */
+    public void decode(BitReader in, DecodeTable[] tables, byte[] dst, int off, int len)
+            throws IOException {
+        byte[] map = this.map;
+        int prev = 0, check = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            int sym = tables[map[prev] & 0xff].decode(in);
+            dst[i] = (byte) sym;
+            check |= sym;
+            prev = sym & 0xff;
+        }
+
+        if ((check & ~0xff) != 0) {
+            throw new IOException("Unexpected EoF in order-1 block");
+        } else if (in.available() < 0) {
+            throw new IOException("Unexpected end of order-1 block");
+        }
+    }
+
+    /**
+     * @return the number of tables
+     */
+    public int getTables() {
+        return bitTables.length;
+    }
+}
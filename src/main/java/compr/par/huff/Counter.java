@@ -3,55 +3,271 @@ package compr.par.huff;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Counts byte frequencies of the input in chunks claimed from a shared
+ * cursor. Every task keeps claiming the next chunk until none is left, so a
+ * task held up by a slow region or by the scheduler does not hold up the
+ * others: the idle ones take over the remaining chunks. Each task counts
+ * into its own histogram, which is merged into the shared table at the end.
+ * <P>
+ * When the cursor hands out only a sample of the chunks, the odd samples can
+ * be counted into a separate held-out table, to estimate how well a code
+ * built from part of the input fits the rest.
+ * <P>
+ * For order-1 coding the tasks count a histogram per context, the previous
+ * byte, which is reset to 0 at the start of every block because blocks are
+ * coded independently.
+ *
  * @author Georgi Krastev <joro.kr.21@gmail.com>
  */
 public class Counter implements Callable<Void> {
 
     public static final int BUF = 64 * 1024; // 64 KB
+    public static final int CHUNK = 1024 * 1024; // 1 MB
     private final File fin;
     private final int id, total;
-    private final AtomicLong[] freqTable;
+    private final ChunkCursor chunks;
+    private final AtomicLong[] freqTable, heldOut;
+    private final AtomicLong[][] contexts; // by previous byte, null for order 0
+    private final int block; // of the coder, where the context is reset
+    private final boolean mapped;
+    private final BlockCache cache;
+    private final Histogram kernel; // null for the plain loop
 
-    public Counter(File fin, int id, int total, AtomicLong[] freqTable) {
+    public Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[] freqTable) {
+        this(fin, id, total, chunks, freqTable, false, false);
+    }
+
+    /**
+     * @param fin is the input file
+     * @param id is the index of the task, to spread the merging
+     * @param total is the number of tasks
+     * @param chunks is the cursor shared by the tasks
+     * @param freqTable receives the frequencies
+     * @param mapped tells whether to map the chunks instead of reading them
+     * @param histogram tells whether to count with <code>Histogram</code>
+     * instead of the plain loop
+     */
+    public Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[] freqTable,
+            boolean mapped, boolean histogram) {
+        this(fin, id, total, chunks, freqTable, null, mapped, null, histogram, null, 0);
+    }
+
+    /**
+     * Counts the odd samples of <code>chunks</code> into <code>heldOut</code>
+     * instead of <code>freqTable</code>.
+     */
+    public Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[] freqTable,
+            AtomicLong[] heldOut, boolean mapped, boolean histogram) {
+        this(fin, id, total, chunks, freqTable, heldOut, mapped, null, histogram, null, 0);
+    }
+
+    /**
+     * With a <code>cache</code> the chunks must be its blocks, which are kept
+     * in the cache for the encoder.
+     */
+    public Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[] freqTable,
+            BlockCache cache, boolean histogram) {
+        this(fin, id, total, chunks, freqTable, null, false, cache, histogram, null, 0);
+    }
+
+    /**
+     * Counts the frequencies of every byte after each byte into
+     * <code>contexts</code>, reading the chunks.
+     *
+     * @param contexts receives the frequencies by previous byte
+     * @param block is the size of the blocks the input is coded in
+     */
+    public Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[][] contexts,
+            int block) {
+        this(fin, id, total, chunks, null, null, false, null, false, contexts, block);
+    }
+
+    private Counter(File fin, int id, int total, ChunkCursor chunks, AtomicLong[] freqTable,
+            AtomicLong[] heldOut, boolean mapped, BlockCache cache, boolean histogram,
+            AtomicLong[][] contexts, int block) {
         this.fin = fin;
         this.id = id;
         this.total = total;
+        this.chunks = chunks;
         this.freqTable = freqTable;
+        this.heldOut = heldOut;
+        this.mapped = mapped;
+        this.cache = cache;
+        kernel = histogram ? new Histogram() : null;
+        this.contexts = contexts;
+        this.block = block;
     }
 
     @Override
     public Void call() throws IOException {
-        InputStream in = new FileInputStream(fin);
+        if (contexts != null) {
+            return countContexts();
+        }
+
+        long[] even = new long[ByteSym.RANGE];
+        long[] odd = heldOut != null ? new long[ByteSym.RANGE] : even;
+        FileChannel in = new FileInputStream(fin).getChannel();
         try {
-            long len = fin.length() / total, off = id * len;
-            len += id < total - 1 ? 0 : fin.length() % total;
-            long[] lcl = new long[ByteSym.RANGE];
-            byte[] buf = new byte[BUF];
-            in.skip(off);
-            while (len > 0) {
-                int l = in.read(buf, 0, (int) Math.min(len, BUF));
-                len -= l;
-                for (int i = 0; i < l; i++) {
-                    lcl[ByteSym.uByte(buf[i])]++;
+            ByteBuffer buf = mapped || cache != null ? null : ByteBuffer.allocate(BUF);
+            for (long s = chunks.claim(); s >= 0; s = chunks.claim()) {
+                long off = chunks.offset(s);
+                int len = chunks.length(s);
+                long[] lcl = s % 2 == 0 ? even : odd;
+                if (cache != null) {
+                    countCached(in, (int) (off / chunks.getChunk()), off, len, lcl);
+                } else if (mapped) {
+                    ByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, off, len);
+                    if (kernel != null) {
+                        kernel.count(src, lcl);
+                    } else {
+                        count(src, lcl);
+                    }
+                } else {
+                    count(in, buf, off, len, lcl);
                 }
             }
+        } finally {
+            in.close();
+        }
+
+        merge(even, freqTable);
+        if (heldOut != null) {
+            merge(odd, heldOut);
+        }
+
+        return null;
+    }
+
+    private Void countContexts() throws IOException {
+        long[][] lcl = new long[contexts.length][ByteSym.RANGE];
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(BUF);
+            for (long s = chunks.claim(); s >= 0; s = chunks.claim()) {
+                long off = chunks.offset(s), end = off + chunks.length(s);
+                int prev = 0;
+                if (off % block != 0) {
+                    buf.clear();
+                    buf.limit(1);
+                    if (in.read(buf, off - 1) < 1) {
+                        throw new IOException("Unexpected end of " + fin.getName());
+                    }
 
-            int sym = id * ByteSym.RANGE / total;
-            for (int i = 0; i < ByteSym.RANGE; i++) {
-                sym = ++sym % ByteSym.RANGE;
-                if (lcl[sym] > 0) {
-                    freqTable[sym].addAndGet(lcl[sym]);
+                    prev = ByteSym.uByte(buf.get(0));
                 }
-            }
 
-            return null;
+                while (off < end) {
+                    // a read never crosses a block, where the context is reset
+                    int rem = (int) (block - off % block);
+                    prev = rem == block ? 0 : prev;
+                    buf.clear();
+                    buf.limit((int) Math.min(Math.min(end - off, BUF), rem));
+                    int l = in.read(buf, off);
+                    if (l < 0) {
+                        throw new IOException("Unexpected end of " + fin.getName());
+                    }
+
+                    prev = count(buf.array(), 0, l, prev, lcl);
+                    off += l;
+                }
+            }
         } finally {
             in.close();
         }
+
+        for (int ctx = 0; ctx < contexts.length; ctx++) {
+            merge(lcl[ctx], contexts[ctx]);
+        }
+
+        return null;
+    }
+
+    private void merge(long[] lcl, AtomicLong[] table) {
+        int sym = id * ByteSym.RANGE / total;
+        for (int i = 0; i < ByteSym.RANGE; i++) {
+            sym = ++sym % ByteSym.RANGE;
+            if (lcl[sym] > 0) {
+                table[sym].addAndGet(lcl[sym]);
+            }
+        }
+    }
+
+    private void count(FileChannel in, ByteBuffer buf, long off, int len, long[] lcl)
+            throws IOException {
+        for (long end = off + len; off < end;) {
+            buf.clear();
+            buf.limit((int) Math.min(end - off, BUF));
+            int l = in.read(buf, off);
+            if (l < 0) {
+                throw new IOException("Unexpected end of " + fin.getName());
+            }
+
+            count(buf.array(), l, lcl);
+            off += l;
+        }
+    }
+
+    private void countCached(FileChannel in, int block, long off, int len, long[] lcl)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, off + buf.position()) < 0) {
+                throw new IOException("Unexpected end of " + fin.getName());
+            }
+        }
+
+        count(buf.array(), len, lcl);
+        cache.put(block, buf.array(), len);
+    }
+
+    private void count(byte[] buf, int len, long[] lcl) {
+        if (kernel != null) {
+            kernel.count(buf, 0, len, lcl);
+        } else {
+            count(buf, 0, len, lcl);
+        }
+    }
+
+    /**
+     * Adds the byte frequencies of <code>len</code> bytes of <code>buf</code>
+     * to <code>freq</code>.
+     */
+    public static void count(byte[] buf, int off, int len, long[] freq) {
+        for (int i = off; i < off + len; i++) {
+            freq[ByteSym.uByte(buf[i])]++;
+        }
+    }
+
+    /**
+     * Adds the frequencies of <code>len</code> bytes of <code>buf</code> to
+     * the rows of <code>freq</code> of their previous bytes.
+     *
+     * @param prev is the byte before the first one
+     * @return the last byte
+     */
+    public static int count(byte[] buf, int off, int len, int prev, long[][] freq) {
+        for (int i = off; i < off + len; i++) {
+            int sym = ByteSym.uByte(buf[i]);
+            freq[prev][sym]++;
+            prev = sym;
+        }
+
+        return prev;
+    }
+
+    /**
+     * Adds the byte frequencies of the remaining bytes of <code>buf</code> to
+     * <code>freq</code>, without changing its position.
+     */
+    public static void count(ByteBuffer buf, long[] freq) {
+        for (int i = buf.position(); i < buf.limit(); i++) {
+            freq[ByteSym.uByte(buf.get(i))]++;
+        }
     }
 }
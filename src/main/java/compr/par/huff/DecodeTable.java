@@ -0,0 +1,159 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import java.util.Arrays;
+
+/**
+ * Lookup table for decoding canonical Huffman codes. The next
+ * <code>PEEK</code> bits index an entry holding the symbol and its bit length,
+ * so that codes of up to <code>PEEK</code> bits are resolved in one lookup.
+ * Longer codes fall back to a search over the code lengths, which is rare
+ * because they belong to the least frequent symbols.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class DecodeTable {
+
+    public static final int PEEK = 11; // 2^11 entries, 8 KB
+    private static final int MAX = Integer.SIZE;
+    protected final int peek;                       // bits resolved by one lookup
+    protected final int[] table;                    // sym << 8 | bits, 0 for long codes
+    private final long[] limit = new long[MAX + 1]; // last code + 1 of each length
+    private final int[] index = new int[MAX + 1];   // first code of each length - its rank
+    private int[] symbols = new int[0];             // in canonical order
+    private int maxBits;
+
+    /**
+     * @param bitTable holds the code length of each symbol (0-32), 0 for
+     * symbols without a code
+     */
+    public DecodeTable(byte[] bitTable) {
+        this(bitTable, PEEK);
+    }
+
+    /**
+     * @param bitTable holds the code length of each symbol (0-32), 0 for
+     * symbols without a code
+     * @param peek is the number of bits resolved by one lookup
+     */
+    protected DecodeTable(byte[] bitTable, int peek) {
+        this.peek = peek;
+        table = new int[1 << peek];
+        build(bitTable);
+    }
+
+    /**
+     * Builds the table again for other code lengths, reusing its arrays.
+     *
+     * @param bitTable holds the code length of each symbol (0-32), 0 for
+     * symbols without a code
+     */
+    public void rebuild(byte[] bitTable) {
+        Arrays.fill(table, 0);
+        build(bitTable);
+    }
+
+    private void build(byte[] bitTable) {
+        Arrays.fill(limit, 0);
+        int n = 0;
+        for (int sym = 0; sym < bitTable.length; sym++) {
+            if (bitTable[sym] < 0 || bitTable[sym] > MAX) {
+                throw new IllegalArgumentException("Unsupported code length " + bitTable[sym]);
+            } else if (bitTable[sym] > 0) {
+                n++;
+            }
+        }
+
+        // assign the canonical codes by length, then by symbol
+        if (symbols.length < n) {
+            symbols = new int[n];
+        }
+
+        int rank = 0, code = -1, prev = 1, last = 0;
+        for (int bits = 1; bits <= MAX && rank < n; bits++) {
+            for (int sym = 0; sym < bitTable.length; sym++) {
+                if (bitTable[sym] != bits) {
+                    continue;
+                }
+
+                code = ++code << (bits - prev);
+                if (bits != prev || rank == 0) {
+                    index[bits] = code - rank;
+                }
+
+                prev = last = bits;
+                limit[bits] = (code & 0xffffffffL) + 1;
+                symbols[rank++] = sym;
+                if (bits <= peek) {
+                    int lo = code << (peek - bits), hi = (code + 1) << (peek - bits);
+                    for (int i = lo; i < hi; i++) {
+                        table[i] = sym << Byte.SIZE | bits;
+                    }
+                }
+            }
+        }
+
+        maxBits = last;
+    }
+
+    /**
+     * Decodes the next symbol.
+     *
+     * @param in is the reader positioned at the start of a code
+     * @return the decoded symbol, possibly <code>ByteSym.EoF</code>
+     */
+    public int decode(BitReader in) {
+        int entry = table[in.peek(peek)];
+        if (entry != 0) {
+            in.consume(entry & 0xff);
+            return entry >>> Byte.SIZE;
+        }
+
+        for (int bits = peek + 1; bits <= maxBits; bits++) {
+            long code = in.peek(bits) & 0xffffffffL;
+            if (code < limit[bits]) {
+                in.consume(bits);
+                return symbols[(int) code - index[bits]];
+            }
+        }
+
+        throw new IllegalStateException("Invalid Huffman code");
+    }
+
+    /**
+     * Decodes symbols until <code>len</code> symbols are decoded, the
+     * <code>EoF</code> symbol is reached or the reader gets to
+     * <code>end</code>.
+     *
+     * @param in is the reader positioned at the start of a code
+     * @param end is the bit position at which to stop
+     * @param dst is the array the symbols are stored in
+     * @param off is the index of the first symbol in <code>dst</code>
+     * @param len is the maximum number of symbols to decode
+     * @return the number of symbols decoded, or <code>-(count + 1)</code> if
+     * the <code>EoF</code> symbol was reached after <code>count</code> symbols
+     */
+    public int decode(BitReader in, long end, byte[] dst, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (in.position() >= end) {
+                return i;
+            }
+
+            int sym = decode(in);
+            if (sym == ByteSym.EoF) {
+                return -(i + 1);
+            }
+
+            dst[off + i] = (byte) sym;
+        }
+
+        return len;
+    }
+
+    /**
+     * @return the length of the longest code in bits
+     */
+    public int getMaxBits() {
+        return maxBits;
+    }
+}
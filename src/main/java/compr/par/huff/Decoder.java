@@ -0,0 +1,164 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * Decodes one block of a Huffman coded file and writes it at its offset in
+ * the output file, so that blocks can be decoded concurrently. Without a
+ * shared table, the table of the block is read from its start.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Decoder implements Callable<Void> {
+
+    public static final int BUF = 64 * 1024; // 64 KB
+    private final File fin, fout;
+    private final long bitOff, bitEnd, outOff;
+    private final int len;
+    private final DecodeTable table;
+    private final boolean mapped, multi, interleaved;
+    private final ContextModel model;
+    private final DecodeTable[] tables; // of the order-1 model
+
+    public Decoder(File fin, long bitOff, long bitEnd, int len, File fout, long outOff,
+            DecodeTable table) {
+        this(fin, bitOff, bitEnd, len, fout, outOff, table, false, false);
+    }
+
+    /**
+     * @param table is the shared decode table, or null if the block starts
+     * with its own bit table
+     * @param mapped tells whether to map the block instead of reading it
+     * @param multi tells whether to build the own table of the block as a
+     * <code>MultiDecodeTable</code>
+     */
+    public Decoder(File fin, long bitOff, long bitEnd, int len, File fout, long outOff,
+            DecodeTable table, boolean mapped, boolean multi) {
+        this(fin, bitOff, bitEnd, len, fout, outOff, table, mapped, multi, false);
+    }
+
+    /**
+     * @param interleaved tells whether the codes of the block are split into
+     * the interleaved streams of the <code>Interleaver</code>
+     */
+    public Decoder(File fin, long bitOff, long bitEnd, int len, File fout, long outOff,
+            DecodeTable table, boolean mapped, boolean multi, boolean interleaved) {
+        this(fin, bitOff, bitEnd, len, fout, outOff, table, mapped, multi, interleaved, null,
+                null);
+    }
+
+    /**
+     * Decodes a block coded with the order-1 <code>model</code>.
+     *
+     * @param tables are the decode tables of the model
+     */
+    public Decoder(File fin, long bitOff, long bitEnd, int len, File fout, long outOff,
+            ContextModel model, DecodeTable[] tables, boolean mapped) {
+        this(fin, bitOff, bitEnd, len, fout, outOff, null, mapped, false, false, model, tables);
+    }
+
+    private Decoder(File fin, long bitOff, long bitEnd, int len, File fout, long outOff,
+            DecodeTable table, boolean mapped, boolean multi, boolean interleaved,
+            ContextModel model, DecodeTable[] tables) {
+        this.fin = fin;
+        this.bitOff = bitOff;
+        this.bitEnd = bitEnd;
+        this.len = len;
+        this.fout = fout;
+        this.outOff = outOff;
+        this.table = table;
+        this.mapped = mapped;
+        this.multi = multi;
+        this.interleaved = interleaved;
+        this.model = model;
+        this.tables = tables;
+    }
+
+    @Override
+    public Void call() throws IOException {
+        FileChannel in = new RandomAccessFile(fin, "r").getChannel();
+        FileChannel out = new RandomAccessFile(fout, "rw").getChannel();
+        try {
+            long off = bitOff / Byte.SIZE;
+            int size = (int) ((bitEnd + Byte.SIZE - 1) / Byte.SIZE - off);
+            ByteBuffer src;
+            if (mapped) {
+                src = in.map(FileChannel.MapMode.READ_ONLY, off, size);
+            } else {
+                src = ByteBuffer.allocate(size);
+                while (src.hasRemaining()) {
+                    if (in.read(src, off + src.position()) < 0) {
+                        break;
+                    }
+                }
+
+                src.flip();
+            }
+
+            BitReader bits = new BitReader(src);
+            bits.skip(bitOff % Byte.SIZE);
+            if (model != null) {
+                byte[] buf = new byte[len];
+                model.decode(bits, tables, buf, 0, len);
+                write(out, buf);
+                return null;
+            }
+
+            DecodeTable table = this.table;
+            if (table == null) {
+                byte[] bitTable = new byte[ByteSym.RANGE];
+                HuffHeader.readBitTable(bits, bitTable);
+                try {
+                    table = multi ? new MultiDecodeTable(bitTable) : new DecodeTable(bitTable);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(ex.getMessage());
+                }
+            }
+
+            if (interleaved) {
+                byte[] buf = new byte[len];
+                Interleaver.decode(src, bits, table, buf, 0, len);
+                write(out, buf);
+                return null;
+            }
+
+            byte[] buf = new byte[Math.min(len, BUF)];
+            long pos = outOff;
+            for (int rem = len; rem > 0;) {
+                int l = table.decode(bits, Long.MAX_VALUE, buf, 0, Math.min(rem, buf.length));
+                if (l < 0) {
+                    throw new IOException("Unexpected EoF in block of " + fin.getName());
+                }
+
+                ByteBuffer dst = ByteBuffer.wrap(buf, 0, l);
+                while (dst.hasRemaining()) {
+                    pos += out.write(dst, pos);
+                }
+
+                rem -= l;
+            }
+
+            if (bits.available() < 0) {
+                throw new IOException("Unexpected end of block in " + fin.getName());
+            }
+
+            return null;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private void write(FileChannel out, byte[] buf) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buf);
+        for (long pos = outOff; dst.hasRemaining();) {
+            pos += out.write(dst, pos);
+        }
+    }
+}
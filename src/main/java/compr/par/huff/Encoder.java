@@ -0,0 +1,324 @@
+package compr.par.huff;
+
+import io.bitstream.BitWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * Encodes one block of the input file into its own bit buffer, so that blocks
+ * can be encoded concurrently and then stitched in order. Without a shared
+ * table, the block is counted and coded with its own table, which is written
+ * in front of its bits.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Encoder implements Callable<Encoder> {
+
+    public static final int BUF = 64 * 1024; // 64 KB
+    private final File fin;
+    private final long off;
+    private final int len;
+    private static final ThreadLocal<CodeBuilder> BUILDER = new ThreadLocal<CodeBuilder>() {
+        @Override
+        protected CodeBuilder initialValue() {
+            return new CodeBuilder();
+        }
+    };
+    private final byte[] bitTable;
+    private final int[] codeTable;
+    private final long[] freqTable; // of the own table, counted if null
+    private final int maxBits; // of the own table, 0 with a shared table
+    private final boolean mapped;
+    private final BlockCache cache;
+    private final int block;
+    private final int streams; // interleaved streams of the block
+    private final boolean histogram; // count the own table with Histogram
+    private final ContextModel model; // of order-1 coding, null for order 0
+    private byte[] bytes;
+    private long bits;
+
+    public Encoder(File fin, long off, int len, byte[] bitTable, int[] codeTable) {
+        this(fin, off, len, bitTable, codeTable, false);
+    }
+
+    public Encoder(File fin, long off, int len, byte[] bitTable, int[] codeTable,
+            boolean mapped) {
+        this(fin, off, len, bitTable, codeTable, mapped, 1);
+    }
+
+    /**
+     * Encodes a block in <code>streams</code> interleaved streams with the
+     * <code>Interleaver</code>, if more than 1.
+     */
+    public Encoder(File fin, long off, int len, byte[] bitTable, int[] codeTable,
+            boolean mapped, int streams) {
+        this(fin, off, len, bitTable, codeTable, null, 0, mapped, null, -1, streams, null,
+                false);
+    }
+
+    /**
+     * Encodes a block with its own table, with codes of at most
+     * <code>maxBits</code> bits.
+     */
+    public Encoder(File fin, long off, int len, int maxBits, boolean mapped) {
+        this(fin, off, len, null, maxBits, mapped);
+    }
+
+    /**
+     * Encodes a block with its own table, built from the already counted
+     * <code>freqTable</code>.
+     */
+    public Encoder(File fin, long off, int len, long[] freqTable, int maxBits,
+            boolean mapped) {
+        this(fin, off, len, freqTable, maxBits, mapped, 1);
+    }
+
+    /**
+     * Encodes a block with its own table in <code>streams</code> interleaved
+     * streams, if more than 1.
+     */
+    public Encoder(File fin, long off, int len, long[] freqTable, int maxBits,
+            boolean mapped, int streams) {
+        this(fin, off, len, freqTable, maxBits, mapped, streams, false);
+    }
+
+    /**
+     * Encodes a block with its own table, counted with <code>Histogram</code>
+     * if <code>histogram</code> and <code>freqTable</code> is null.
+     */
+    public Encoder(File fin, long off, int len, long[] freqTable, int maxBits,
+            boolean mapped, int streams, boolean histogram) {
+        this(fin, off, len, null, null, freqTable, maxBits, mapped, null, -1, streams, null,
+                histogram);
+    }
+
+    /**
+     * Encodes a block taken from <code>cache</code> instead of the file.
+     */
+    public Encoder(BlockCache cache, int block, int len, byte[] bitTable, int[] codeTable) {
+        this(cache, block, len, bitTable, codeTable, 1);
+    }
+
+    /**
+     * Encodes a block taken from <code>cache</code> in <code>streams</code>
+     * interleaved streams, if more than 1.
+     */
+    public Encoder(BlockCache cache, int block, int len, byte[] bitTable, int[] codeTable,
+            int streams) {
+        this(null, (long) block * cache.getBlockSize(), len, bitTable, codeTable, null, 0,
+                false, cache, block, streams, null, false);
+    }
+
+    /**
+     * Encodes a block with the order-1 <code>model</code>.
+     */
+    public Encoder(File fin, long off, int len, ContextModel model, boolean mapped) {
+        this(fin, off, len, null, null, null, 0, mapped, null, -1, 1, model, false);
+    }
+
+    private Encoder(File fin, long off, int len, byte[] bitTable, int[] codeTable,
+            long[] freqTable, int maxBits, boolean mapped, BlockCache cache, int block,
+            int streams, ContextModel model, boolean histogram) {
+        this.fin = fin;
+        this.off = off;
+        this.len = len;
+        this.bitTable = bitTable;
+        this.codeTable = codeTable;
+        this.freqTable = freqTable;
+        this.maxBits = maxBits;
+        this.mapped = mapped;
+        this.cache = cache;
+        this.block = block;
+        this.streams = streams;
+        this.model = model;
+        this.histogram = histogram;
+    }
+
+    @Override
+    public Encoder call() throws IOException {
+        BitWriter out = new BitWriter(len / 2);
+        if (model != null) {
+            encodeContext(out);
+        } else if (bitTable == null) {
+            encodeOwn(out);
+        } else if (cache != null && streams > 1) {
+            encode(ByteBuffer.wrap(cache.take(block, len), 0, len), codeTable, bitTable, streams,
+                    out);
+        } else if (streams > 1) {
+            encodeInterleaved(out);
+        } else if (cache != null) {
+            out.encode(cache.take(block, len), 0, len, codeTable, bitTable);
+        } else if (mapped) {
+            encodeMapped(out);
+        } else {
+            encode(out);
+        }
+
+        bits = out.position();
+        out.flush();
+        bytes = out.array();
+        return this;
+    }
+
+    private void encode(BitWriter out) throws IOException {
+        InputStream in = new FileInputStream(fin);
+        try {
+            byte[] block = new byte[BUF];
+            int rem = len;
+            in.skip(off);
+            while (rem > 0) {
+                int l = in.read(block, 0, Math.min(rem, BUF));
+                rem -= l;
+                out.encode(block, 0, l, codeTable, bitTable);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void encodeMapped(BitWriter out) throws IOException {
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            out.encode(in.map(FileChannel.MapMode.READ_ONLY, off, len), codeTable, bitTable);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void encodeOwn(BitWriter out) throws IOException {
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            encodeOwn(read(in), freqTable, maxBits, streams, histogram, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void encodeContext(BitWriter out) throws IOException {
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            model.encode(read(in), out);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void encodeInterleaved(BitWriter out) throws IOException {
+        FileChannel in = new FileInputStream(fin).getChannel();
+        try {
+            encode(read(in), codeTable, bitTable, streams, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the whole block, mapped or read
+     */
+    private ByteBuffer read(FileChannel in) throws IOException {
+        if (mapped) {
+            return in.map(FileChannel.MapMode.READ_ONLY, off, len);
+        }
+
+        ByteBuffer src = ByteBuffer.allocate(len);
+        while (src.hasRemaining()) {
+            if (in.read(src, off + src.position()) < 0) {
+                throw new IOException("Unexpected end of " + fin.getName());
+            }
+        }
+
+        src.flip();
+        return src;
+    }
+
+    /**
+     * Codes the remaining bytes of <code>src</code> with their own table,
+     * which is written in front of the codes.
+     *
+     * @param src holds the bytes of a block
+     * @param freqTable holds the frequencies of the block, or null to count
+     * them
+     * @param maxBits is the longest code length
+     * @param streams is 1 for a single stream, or
+     * <code>Interleaver.STREAMS</code>
+     * @param out is the writer of the table and the codes
+     */
+    public static void encodeOwn(ByteBuffer src, long[] freqTable, int maxBits, int streams,
+            BitWriter out) {
+        encodeOwn(src, freqTable, maxBits, streams, false, out);
+    }
+
+    /**
+     * @param histogram tells whether to count with <code>Histogram</code>
+     * instead of the plain loop
+     */
+    public static void encodeOwn(ByteBuffer src, long[] freqTable, int maxBits, int streams,
+            boolean histogram, BitWriter out) {
+        long[] freq = freqTable;
+        if (freq == null) {
+            freq = new long[ByteSym.RANGE];
+            if (histogram) {
+                new Histogram().count(src, freq);
+            } else {
+                Counter.count(src, freq);
+            }
+        }
+
+        CodeBuilder builder = BUILDER.get();
+        byte[] bitTable = new byte[ByteSym.RANGE];
+        int[] codeTable = new int[ByteSym.RANGE];
+        builder.makeBitTable(freq, maxBits, bitTable);
+        builder.makeCodeTable(bitTable, codeTable);
+        HuffHeader.writeBitTable(out, bitTable);
+        encode(src, codeTable, bitTable, streams, out);
+    }
+
+    /**
+     * Codes the remaining bytes of <code>src</code> with a code table, in a
+     * single stream or interleaved.
+     *
+     * @param src holds the bytes of a block
+     * @param codeTable holds the code of each symbol
+     * @param bitTable holds the bit length of each code
+     * @param streams is 1 for a single stream, or
+     * <code>Interleaver.STREAMS</code>
+     * @param out is the writer of the codes
+     */
+    public static void encode(ByteBuffer src, int[] codeTable, byte[] bitTable, int streams,
+            BitWriter out) {
+        if (streams > 1) {
+            Interleaver.encode(src, codeTable, bitTable, out);
+        } else if (src.hasArray()) {
+            out.encode(src.array(), src.arrayOffset() + src.position(), src.remaining(),
+                    codeTable, bitTable);
+        } else {
+            out.encode(src, codeTable, bitTable);
+        }
+    }
+
+    /**
+     * Appends the encoded bits of this block to <code>out</code>.
+     *
+     * @param out is the writer the block is stitched into
+     */
+    public void writeTo(BitWriter out) {
+        out.write(bytes, bits);
+    }
+
+    public long getOffset() {
+        return off;
+    }
+
+    public int getLength() {
+        return len;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+}
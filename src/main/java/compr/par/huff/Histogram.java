@@ -0,0 +1,87 @@
+package compr.par.huff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Histogram kernel that counts bytes round-robin into several
+ * <code>int</code> sub-tables, folded into the <code>long</code> totals at
+ * the end of every call. Consecutive bytes go to different sub-tables, so a
+ * run of the same byte does not make every increment wait for the previous
+ * store to the same counter, which is what limits the plain loop of
+ * <code>Counter.count</code> on low-entropy data. Buffers are read 8 bytes at
+ * a time.
+ * <P>
+ * An instance holds the sub-tables, so it must not be used concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Histogram {
+
+    public static final int WAYS = 4;   // number of sub-tables
+    private static final int SYMS = ByteSym.EoF;
+    private static final int STRIDE = Long.SIZE / Byte.SIZE;
+    private final int[] sub = new int[WAYS * SYMS];
+
+    /**
+     * Adds the byte frequencies of <code>len</code> bytes of <code>buf</code>
+     * to <code>freq</code>.
+     */
+    public void count(byte[] buf, int off, int len, long[] freq) {
+        int[] sub = this.sub;
+        int i = off, end = off + len;
+        for (; i + WAYS <= end; i += WAYS) {
+            sub[buf[i] & 0xff]++;
+            sub[SYMS + (buf[i + 1] & 0xff)]++;
+            sub[2 * SYMS + (buf[i + 2] & 0xff)]++;
+            sub[3 * SYMS + (buf[i + 3] & 0xff)]++;
+        }
+
+        for (; i < end; i++) {
+            sub[buf[i] & 0xff]++;
+        }
+
+        fold(freq);
+    }
+
+    /**
+     * Adds the byte frequencies of the remaining bytes of <code>buf</code> to
+     * <code>freq</code>, without changing its position.
+     */
+    public void count(ByteBuffer buf, long[] freq) {
+        int[] sub = this.sub;
+        ByteBuffer src = buf.order() == ByteOrder.BIG_ENDIAN ? buf : buf.duplicate();
+        src.order(ByteOrder.BIG_ENDIAN);
+        int i = buf.position(), end = buf.limit();
+        for (; i + STRIDE <= end; i += STRIDE) {
+            long w = src.getLong(i);
+            sub[(int) (w >>> 56)]++;
+            sub[SYMS + ((int) (w >>> 48) & 0xff)]++;
+            sub[2 * SYMS + ((int) (w >>> 40) & 0xff)]++;
+            sub[3 * SYMS + ((int) (w >>> 32) & 0xff)]++;
+            sub[(int) w >>> 24]++;
+            sub[SYMS + ((int) w >>> 16 & 0xff)]++;
+            sub[2 * SYMS + ((int) w >>> 8 & 0xff)]++;
+            sub[3 * SYMS + ((int) w & 0xff)]++;
+        }
+
+        for (; i < end; i++) {
+            sub[src.get(i) & 0xff]++;
+        }
+
+        fold(freq);
+    }
+
+    /**
+     * Adds the sub-tables to <code>freq</code> and clears them. A call counts
+     * less than 2^31 bytes, so the sub-tables cannot overflow.
+     */
+    private void fold(long[] freq) {
+        int[] sub = this.sub;
+        for (int sym = 0; sym < SYMS; sym++) {
+            freq[sym] += (long) sub[sym] + sub[SYMS + sym] + sub[2 * SYMS + sym]
+                    + sub[3 * SYMS + sym];
+            sub[sym] = sub[SYMS + sym] = sub[2 * SYMS + sym] = sub[3 * SYMS + sym] = 0;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import io.bitstream.BitWriter;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable context for compressing and expanding buffers in memory, such as
+ * RPC payloads, without files or threads. A buffer is coded as one frame in
+ * the format of <code>HuffOutputStream</code>, without the magic.
+ * <P>
+ * The context holds the histogram, the code and decode tables and the scratch
+ * buffers, which only grow, so once it has seen the largest payload it codes
+ * without allocation. An instance must be confined to one thread at a time.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class HuffCodec {
+
+    private static final int INT = Integer.SIZE / Byte.SIZE;
+    private final int maxBits;
+    private final long[] freqTable = new long[ByteSym.RANGE];
+    private final byte[] bitTable = new byte[ByteSym.RANGE];
+    private final int[] codeTable = new int[ByteSym.RANGE];
+    private Histogram kernel; // null for the plain loop
+    private final CodeBuilder builder = new CodeBuilder();
+    private final BitWriter bits = new BitWriter(Decoder.BUF);
+    private final DecodeTable table;
+    private byte[] src = new byte[0], dst = new byte[0];
+    private BitReader reader = new BitReader(src, 0, 0);
+
+    public HuffCodec() {
+        this(ParHuffCompressor.MAX_BITS, false);
+    }
+
+    /**
+     * @param maxBits is the longest code length when compressing, between
+     * <code>ParHuffCompressor.MIN_BITS</code> and <code>LIMIT_BITS</code>
+     * @param multi tells whether to decode several symbols per lookup
+     */
+    public HuffCodec(int maxBits, boolean multi) {
+        if (maxBits < ParHuffCompressor.MIN_BITS || maxBits > ParHuffCompressor.LIMIT_BITS) {
+            throw new IllegalArgumentException("Code length limit out of range: " + maxBits);
+        }
+
+        this.maxBits = maxBits;
+        table = multi ? new MultiDecodeTable(bitTable) : new DecodeTable(bitTable);
+    }
+
+    /**
+     * @param len is the length of a buffer to compress
+     * @return the largest size of its compressed frame
+     */
+    public int maxCompressedLength(int len) {
+        return 2 * INT + (int) ((6L * ByteSym.RANGE + (long) len * maxBits + 7) / Byte.SIZE);
+    }
+
+    /**
+     * Compresses the remaining bytes of <code>src</code> into
+     * <code>dst</code>, advancing the positions of both.
+     *
+     * @param src is the buffer to compress
+     * @param dst is the buffer the frame is written to
+     * @return the size of the frame
+     * @throws BufferOverflowException if the frame does not fit in
+     * <code>dst</code>, whose position is left unchanged
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        if (len == 0) {
+            ensure(dst, INT);
+            putInt(dst, 0);
+            return INT;
+        }
+
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            freqTable[sym] = 0;
+        }
+
+        if (kernel != null) {
+            kernel.count(src, freqTable);
+        } else {
+            Counter.count(src, freqTable);
+        }
+
+        builder.makeBitTable(freqTable, maxBits, bitTable);
+        builder.makeCodeTable(bitTable, codeTable);
+        bits.reset();
+        HuffHeader.writeBitTable(bits, bitTable);
+        if (src.hasArray()) {
+            bits.encode(src.array(), src.arrayOffset() + src.position(), len, codeTable,
+                    bitTable);
+        } else {
+            bits.encode(src, codeTable, bitTable);
+        }
+
+        bits.flush();
+        int size = bits.size();
+        ensure(dst, 2 * INT + size);
+        putInt(dst, len);
+        putInt(dst, size);
+        dst.put(bits.array(), 0, size);
+        src.position(src.limit());
+        return 2 * INT + size;
+    }
+
+    /**
+     * Expands the frame at the position of <code>src</code> into
+     * <code>dst</code>, advancing the positions of both.
+     *
+     * @param src is the buffer holding the frame
+     * @param dst is the buffer the expanded bytes are written to
+     * @return the number of expanded bytes
+     * @throws IOException if the frame is truncated or corrupt
+     * @throws BufferOverflowException if the bytes do not fit in
+     * <code>dst</code>
+     */
+    public int expand(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int off = src.position();
+        if (src.remaining() < INT) {
+            throw new IOException("Truncated Huffman coded frame");
+        }
+
+        int len = getInt(src, off);
+        if (len == 0) {
+            src.position(off + INT);
+            return 0;
+        } else if (len < 0 || src.remaining() < 2 * INT) {
+            throw new IOException("Corrupt Huffman coded frame");
+        }
+
+        int size = getInt(src, off + INT);
+        if (size < 0 || size > src.remaining() - 2 * INT) {
+            throw new IOException("Truncated Huffman coded frame");
+        }
+
+        ensure(dst, len);
+        if (this.src.length < size) {
+            this.src = new byte[size];
+            reader = new BitReader(this.src, 0, size);
+        }
+
+        src.position(off + 2 * INT);
+        src.get(this.src, 0, size);
+        reader.reset(0, size);
+        HuffHeader.readBitTable(reader, bitTable);
+        try {
+            table.rebuild(bitTable);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
+
+        int n;
+        if (dst.hasArray()) {
+            n = table.decode(reader, Long.MAX_VALUE, dst.array(),
+                    dst.arrayOffset() + dst.position(), len);
+        } else {
+            if (this.dst.length < len) {
+                this.dst = new byte[len];
+            }
+
+            n = table.decode(reader, Long.MAX_VALUE, this.dst, 0, len);
+        }
+
+        if (n != len || reader.available() < 0) {
+            throw new IOException("Corrupt Huffman coded frame");
+        } else if (dst.hasArray()) {
+            dst.position(dst.position() + len);
+        } else {
+            dst.put(this.dst, 0, len);
+        }
+
+        return len;
+    }
+
+    public boolean isHistogram() {
+        return kernel != null;
+    }
+
+    /**
+     * @param histogram tells whether to count the blocks with the
+     * <code>Histogram</code> kernel, which is faster on long runs of the same
+     * byte, or with the plain loop
+     */
+    public void setHistogram(boolean histogram) {
+        kernel = histogram ? new Histogram() : null;
+    }
+
+    private static void ensure(ByteBuffer dst, int size) {
+        if (dst.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private static void putInt(ByteBuffer dst, int v) {
+        dst.put((byte) (v >>> 24));
+        dst.put((byte) (v >>> 16));
+        dst.put((byte) (v >>> 8));
+        dst.put((byte) v);
+    }
+
+    private static int getInt(ByteBuffer src, int off) {
+        return (src.get(off) & 0xff) << 24 | (src.get(off + 1) & 0xff) << 16
+                | (src.get(off + 2) & 0xff) << 8 | (src.get(off + 3) & 0xff);
+    }
+}
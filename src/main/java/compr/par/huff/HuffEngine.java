@@ -0,0 +1,151 @@
+package compr.par.huff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived engine for compressing and expanding many files. It owns one
+ * compressor and one expander that share an executor, so the worker threads
+ * are created once instead of a pool per file. Jobs may be run concurrently
+ * from any number of threads, which must not be workers of the executor.
+ * <P>
+ * The compressor and the expander can be configured through their getters
+ * before the first job. After <code>shutdown</code> new jobs are rejected,
+ * the running jobs complete and then an owned executor is shut down.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class HuffEngine {
+
+    private final ExecutorService exec;
+    private final boolean owned; // whether to shut down the executor
+    private final ParHuffCompressor compressor;
+    private final HuffExpander expander;
+    private int active;          // running jobs
+    private boolean closed;
+
+    /**
+     * Creates an engine with its own pool of <code>threads</code> threads,
+     * which also is the number of tasks of every job.
+     */
+    public HuffEngine(int threads) {
+        this(Executors.newFixedThreadPool(threads), threads, true);
+    }
+
+    /**
+     * Creates an engine on an executor owned by the caller, which is not shut
+     * down by the engine.
+     *
+     * @param exec is the executor of the tasks of all jobs
+     * @param tasks is the number of tasks of every job
+     */
+    public HuffEngine(ExecutorService exec, int tasks) {
+        this(exec, tasks, false);
+    }
+
+    private HuffEngine(ExecutorService exec, int tasks, boolean owned) {
+        this.exec = exec;
+        this.owned = owned;
+        compressor = new ParHuffCompressor(tasks);
+        compressor.setExecutor(exec);
+        expander = new HuffExpander(tasks);
+        expander.setExecutor(exec);
+    }
+
+    public ParHuffCompressor getCompressor() {
+        return compressor;
+    }
+
+    public HuffExpander getExpander() {
+        return expander;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the engine is shut down
+     */
+    public void compress(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
+        begin();
+        try {
+            compressor.compress(fin, fout);
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if the engine is shut down
+     */
+    public void expand(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
+        begin();
+        try {
+            expander.expand(fin, fout);
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Rejects new jobs and shuts down an owned executor once the running jobs
+     * complete.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        if (active == 0 && owned) {
+            exec.shutdown();
+        }
+
+        notifyAll();
+    }
+
+    public synchronized boolean isShutdown() {
+        return closed;
+    }
+
+    /**
+     * Waits for the running jobs after <code>shutdown</code>, and then for an
+     * owned executor to terminate.
+     *
+     * @return false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!closed || active > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+
+        return !owned || exec.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void begin() {
+        if (closed) {
+            throw new RejectedExecutionException("Engine is shut down");
+        }
+
+        active++;
+    }
+
+    private synchronized void end() {
+        if (--active == 0) {
+            if (closed && owned) {
+                exec.shutdown();
+            }
+
+            notifyAll();
+        }
+    }
+}
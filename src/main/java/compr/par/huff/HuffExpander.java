@@ -4,19 +4,25 @@
  */
 package compr.par.huff;
 
-import compr.seq.Expander;
-import io.bitstream.BitInputStream;
-import java.io.BufferedInputStream;
+import compr.par.ParExpander;
+import io.bitstream.BitReader;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -29,143 +35,391 @@ import test.TimeLogger;
 /**
  * @author Georgi Krastev <joro.kr.21@gmail.com>
  */
-public class HuffExpander implements Expander {
+public class HuffExpander extends ParExpander {
 
     public static final int BUF = 64 * 1024; // 64 KB
     private static final TimeLogger logger = TimeLogger.getLogger();
+    private boolean multi;  // decode several symbols per lookup
+    private boolean mapped; // memory-mapped input
+    private int pipeline;   // buffers of the decoding pipeline, 0 for none
+
+    public HuffExpander(int tasks) {
+        super(tasks);
+    }
+
+    public HuffExpander() {
+        this(1);
+    }
 
     @Override
-    public void expand(File fin, File fout) throws IOException {
+    public void expand(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
         logger.resetTime();
-        logger.log("Starting extraction of file " + fin.getName());
-        Collection<ByteSym> symbols = makeSymbols(fin);
-        decode(fin, fout, makeHuffTree(symbols, makeCodeTable(symbols)));
+        logger.log(MessageFormat.format("Starting extraction of file {0} with {1} task{2}",
+                fin.getName(), getTasks(), getTasks() > 1 ? "s" : ""));
+        HuffHeader header = HuffHeader.read(fin);
+        if (header.getVersion() == HuffHeader.LEGACY && getTasks() > 1) {
+            decodeSpeculative(fin, fout, header,
+                    makeDecodeTable(header.getBitTable(), isMulti()));
+        } else if (header.getVersion() == HuffHeader.LEGACY) {
+            decode(fin, fout, makeDecodeTable(header.getBitTable(), isMulti()));
+        } else if (header.hasFlag(HuffHeader.CODEBOOK)) {
+            Codebook book = Codebook.get(header.getCodebook());
+            if (book == null) {
+                throw new IOException(String.format("Codebook %08x of %s not loaded",
+                        header.getCodebook(), fin.getName()));
+            }
+
+            logger.log("Using codebook " + book);
+            decode(fin, fout, header, book.getDecodeTable(isMulti(header)), null, null);
+        } else if (header.hasFlag(HuffHeader.ORDER1)) {
+            ContextModel model = readContextModel(fin, header);
+            DecodeTable[] tables = model == null ? null : model.makeDecodeTables(isMulti());
+            decode(fin, fout, header, null, model, tables);
+        } else if (header.hasFlag(HuffHeader.BLOCK_TABLES)) {
+            decode(fin, fout, header, null, null, null);
+        } else {
+            decode(fin, fout, header, makeDecodeTable(header.getBitTable(), isMulti(header)),
+                    null, null);
+        }
+
         logger.log("Extraction completed to file " + fout.getName());
     }
 
-    @Override
-    public void expand(String fin, String fout) throws IOException {
-        expand(new File(fin), new File(fout));
+    private DecodeTable makeDecodeTable(byte[] bitTable, boolean multi) throws IOException {
+        try {
+            DecodeTable table = multi
+                    ? new MultiDecodeTable(bitTable)
+                    : new DecodeTable(bitTable);
+            logger.log("Decode table completed");
+            return table;
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
     }
 
-    private Collection<ByteSym> makeSymbols(File fin) throws IOException {
-        InputStream in = new FileInputStream(fin);
+    /**
+     * Reads the order-1 model at the start of the data, which ends where the
+     * first block starts.
+     *
+     * @return the model, or null if there are no blocks
+     */
+    private ContextModel readContextModel(File fin, HuffHeader header) throws IOException {
+        if (header.getBlocks() == 0) {
+            return null;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(fin, "r");
         try {
-            List<ByteSym> symbols = new ArrayList<ByteSym>(ByteSym.RANGE);
-            byte[] bitTable = new byte[ByteSym.RANGE];
-            in.read(bitTable);
-            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
-                if (bitTable[sym] > 0) {
-                    symbols.add(new ByteSym(sym, bitTable[sym]));
-                }
+            byte[] buf = new byte[(int) ((header.getOffset(0) + Byte.SIZE - 1) / Byte.SIZE)];
+            in.seek(header.size());
+            in.readFully(buf);
+            BitReader bits = new BitReader(buf, 0, buf.length);
+            ContextModel model = ContextModel.read(bits);
+            if (bits.position() != header.getOffset(0)) {
+                throw new IOException("Invalid context model in " + fin.getName());
             }
 
-            Collections.sort(symbols);
-            logger.log("Bit table completed");
-            return Collections.unmodifiableCollection(symbols);
+            logger.log(MessageFormat.format("Context model of {0} table{1} completed",
+                    model.getTables(), model.getTables() > 1 ? "s" : ""));
+            return model;
+        } catch (EOFException ex) {
+            throw new IOException("Unexpected end of file " + fin.getName());
         } finally {
             in.close();
         }
     }
 
-    private int[] makeCodeTable(Collection<ByteSym> symbols) throws IOException {
-        int[] codeTable = new int[ByteSym.RANGE];
-        byte bits = 1;
-        int code = -1;
-        for (ByteSym sym : symbols) {
-            code = ++code << (sym.getBits() - bits);
-            bits = sym.getBits();
-            codeTable[sym.intVal()] = code;
+    private void decode(File fin, File fout, HuffHeader header, DecodeTable table,
+            ContextModel model, DecodeTable[] tables)
+            throws IOException, InterruptedException, ExecutionException {
+        if (getPipeline() > 0) {
+            decodePipelined(fin, fout, header, table, model, tables);
+            return;
+        }
+
+        RandomAccessFile out = new RandomAccessFile(fout, "rw");
+        try {
+            out.setLength(header.getLength());
+        } finally {
+            out.close();
         }
 
-        logger.log("Code table completed");
-        return codeTable;
+        ExecutorService exec = acquireExecutor();
+        try {
+            Collection<Decoder> decoders = new ArrayList<Decoder>(header.getBlocks());
+            long data = (long) header.size() * Byte.SIZE, end = fin.length() * Byte.SIZE;
+            long off = 0;
+            for (int b = 0; b < header.getBlocks(); b++) {
+                long bitEnd = b + 1 < header.getBlocks() ? data + header.getOffset(b + 1) : end;
+                decoders.add(model != null
+                        ? new Decoder(fin, data + header.getOffset(b), bitEnd,
+                                header.getLength(b), fout, off, model, tables, isMapped())
+                        : new Decoder(fin, data + header.getOffset(b), bitEnd,
+                                header.getLength(b), fout, off, table, isMapped(),
+                                isMulti(header), header.hasFlag(HuffHeader.INTERLEAVED)));
+                off += header.getLength(b);
+            }
+
+            for (Future<Void> decoder : exec.invokeAll(decoders)) {
+                decoder.get();
+            }
+        } finally {
+            releaseExecutor(exec);
+        }
     }
 
-    private HuffNode makeHuffTree(Collection<ByteSym> symbols, int[] codeTable) {
-        HuffNode root = new HuffNode(null, null);
-        for (ByteSym sym : symbols) {
-            HuffNode cur = root;
-            for (int b = sym.getBits() - 1; b > 0; b--) {
-                if (((codeTable[sym.intVal()] >> b) & 1) == 0) {
-                    if (cur.lo == null) {
-                        cur.lo = new HuffNode(null, null);
+    /**
+     * Decodes the blocks in a <code>Pipeline</code> of <code>pipeline</code>
+     * buffers: a reader thread reads the codes of the blocks into recycled
+     * buffers, the tasks decode them, and this thread writes them in order.
+     * The output is written sequentially, and at most that many blocks and
+     * their codes are in memory.
+     */
+    private void decodePipelined(final File fin, File fout, final HuffHeader header,
+            final DecodeTable table, final ContextModel model, final DecodeTable[] tables)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService exec = acquireExecutor();
+        final FileChannel in = new RandomAccessFile(fin, "r").getChannel();
+        final OutputStream out = new FileOutputStream(fout);
+        try {
+            final long data = (long) header.size() * Byte.SIZE, end = fin.length() * Byte.SIZE;
+            final int count = header.getBlocks();
+            final boolean interleaved = header.hasFlag(HuffHeader.INTERLEAVED);
+            new Pipeline<DecodeSlot>(exec, getPipeline()) {
+                @Override
+                protected DecodeSlot newSlot() {
+                    return new DecodeSlot();
+                }
+
+                @Override
+                protected void read(DecodeSlot slot, int item) throws IOException {
+                    long bitOff = data + header.getOffset(item);
+                    long bitEnd = item + 1 < count ? data + header.getOffset(item + 1) : end;
+                    long off = bitOff / Byte.SIZE;
+                    slot.size = (int) ((bitEnd + Byte.SIZE - 1) / Byte.SIZE - off);
+                    slot.skip = (int) (bitOff % Byte.SIZE);
+                    slot.len = header.getLength(item);
+                    if (slot.src == null || slot.src.length < slot.size) {
+                        slot.src = new byte[slot.size];
+                    }
+
+                    if (slot.dst == null || slot.dst.length < slot.len) {
+                        slot.dst = new byte[slot.len];
+                    }
+
+                    ByteBuffer buf = ByteBuffer.wrap(slot.src, 0, slot.size);
+                    while (buf.hasRemaining()) {
+                        if (in.read(buf, off + buf.position()) < 0) {
+                            throw new IOException("Unexpected end of file " + fin.getName());
+                        }
+                    }
+                }
+
+                @Override
+                protected void process(DecodeSlot slot) throws IOException {
+                    BitReader bits = new BitReader(slot.src, 0, slot.size);
+                    bits.skip(slot.skip);
+                    if (model != null) {
+                        model.decode(bits, tables, slot.dst, 0, slot.len);
+                        return;
                     }
 
-                    cur = cur.lo;
-                } else {
-                    if (cur.hi == null) {
-                        cur.hi = new HuffNode(null, null);
+                    DecodeTable decoder = table;
+                    if (decoder == null) {
+                        HuffHeader.readBitTable(bits, slot.bitTable);
+                        try {
+                            if (slot.table == null) {
+                                slot.table = isMulti(header)
+                                        ? new MultiDecodeTable(slot.bitTable)
+                                        : new DecodeTable(slot.bitTable);
+                            } else {
+                                slot.table.rebuild(slot.bitTable);
+                            }
+                        } catch (IllegalArgumentException ex) {
+                            throw new IOException(ex.getMessage());
+                        }
+
+                        decoder = slot.table;
                     }
 
-                    cur = cur.hi;
+                    if (interleaved) {
+                        Interleaver.decode(ByteBuffer.wrap(slot.src, 0, slot.size), bits, decoder,
+                                slot.dst, 0, slot.len);
+                    } else if (decoder.decode(bits, Long.MAX_VALUE, slot.dst, 0, slot.len)
+                            < slot.len) {
+                        throw new IOException("Unexpected EoF in block of " + fin.getName());
+                    } else if (bits.available() < 0) {
+                        throw new IOException("Unexpected end of block in " + fin.getName());
+                    }
                 }
-            }
 
-            if ((codeTable[sym.intVal()] & 1) == 0) {
-                cur.lo = new HuffNode(sym.intVal(), 0);
-            } else {
-                cur.hi = new HuffNode(sym.intVal(), 0);
-            }
+                @Override
+                protected void write(DecodeSlot slot, int item) throws IOException {
+                    out.write(slot.dst, 0, slot.len);
+                }
+            }.run(count);
+
+            out.flush();
+        } finally {
+            releaseExecutor(exec);
+            in.close();
+            out.close();
         }
+    }
+
+    /**
+     * A buffer of the decoding pipeline: the codes of a block, its own table
+     * and its bytes.
+     */
+    private static class DecodeSlot {
+
+        private byte[] src, dst;
+        private int size, skip, len;
+        private final byte[] bitTable = new byte[ByteSym.RANGE];
+        private DecodeTable table; // own table of the block, rebuilt for each
+    }
 
-        logger.log("Huffman tree completed");
-        return root;
+    /**
+     * Decodes a file of the legacy format with a <code>SpeculativeDecoder</code>
+     * of <code>pipeline</code> buffers, or two per task by default.
+     */
+    private void decodeSpeculative(File fin, File fout, HuffHeader header, DecodeTable table)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService exec = acquireExecutor();
+        FileChannel in = new RandomAccessFile(fin, "r").getChannel();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(fout), BUF);
+        try {
+            int buffers = getPipeline() > 0 ? getPipeline() : 2 * getTasks();
+            SpeculativeDecoder decoder = new SpeculativeDecoder(exec, buffers, fin, in,
+                    header.size(), table, out);
+            decoder.decode();
+            out.flush();
+            logger.log(MessageFormat.format(
+                    "Speculative decoding in sync in {0} of {1} segments, {2} symbols serial",
+                    decoder.getSynced(), decoder.getSegments(), decoder.getSerial()));
+        } finally {
+            releaseExecutor(exec);
+            in.close();
+            out.close();
+        }
     }
 
-    private void decode(File fin, File fout, HuffNode root) throws IOException {
-        BitInputStream in
-                = new BitInputStream(new BufferedInputStream(new FileInputStream(fin), BUF));
+    private void decode(File fin, File fout, DecodeTable table) throws IOException {
+        InputStream in = new FileInputStream(fin);
         OutputStream out = new FileOutputStream(fout);
         try {
-            byte[] buf = new byte[BUF];
-            int i = 0;
+            // keep enough bytes ahead of the reader to always hold a whole lookup
+            int ahead = Long.SIZE / Byte.SIZE;
+            byte[] src = new byte[BUF + ahead], buf = new byte[BUF];
+            int n = 0, l, skip = 0;
             in.skip(ByteSym.RANGE);
-            HuffNode cur = root;
             while (true) {
-                int b = in.readBits(1);
-                if (b == 0) {
-                    cur = cur.lo;
-                } else if (b == 1) {
-                    cur = cur.hi;
-                } else {
-                    break;
+                while (n < src.length && (l = in.read(src, n, src.length - n)) > 0) {
+                    n += l; // NOTE: nested assignment
                 }
 
-                if (cur.isLeaf()) {
-                    if (cur.getSym() == ByteSym.EoF) {
-                        break;
-                    } else {
-                        buf[i++] = (byte) cur.getSym();
-                        cur = root;
+                BitReader bits = new BitReader(src, 0, n);
+                bits.skip(skip);
+                long limit = (long) Math.max(n < src.length ? n : n - ahead, 0) * Byte.SIZE;
+                while (bits.position() < limit) {
+                    int i = table.decode(bits, limit, buf, 0, BUF);
+                    if (i < 0) {
+                        out.write(buf, 0, -(i + 1));
+                        out.flush();
+                        return;
                     }
+
+                    out.write(buf, 0, i);
                 }
 
-                if (i >= BUF) {
-                    out.write(buf);
-                    i = 0;
+                if (n < src.length) {
+                    throw new IOException("Unexpected end of file " + fin.getName());
                 }
-            }
 
-            out.write(buf, 0, i);
-            out.flush();
+                int pos = (int) (bits.position() / Byte.SIZE);
+                skip = (int) (bits.position() % Byte.SIZE);
+                System.arraycopy(src, pos, src, 0, n - pos);
+                n -= pos;
+            }
         } finally {
             in.close();
             out.close();
         }
     }
 
+    public boolean isMulti() {
+        return multi;
+    }
+
+    public void setMulti(boolean multi) {
+        this.multi = multi;
+    }
+
+    /**
+     * @return whether to decode several symbols per lookup in the blocks of
+     * <code>header</code>; interleaved streams are decoded a symbol per
+     * lookup in each stream, so they do not use a multi-symbol table
+     */
+    private boolean isMulti(HuffHeader header) {
+        return isMulti() && !header.hasFlag(HuffHeader.INTERLEAVED);
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public int getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline is the number of block buffers of a pipeline reading,
+     * decoding and writing the blocks at the same time, which bounds the
+     * memory to as many blocks and their codes, or 0 to decode without one
+     */
+    public void setPipeline(int pipeline) {
+        if (pipeline < 0) {
+            throw new IllegalArgumentException("Number of buffers out of range: " + pipeline);
+        }
+
+        this.pipeline = pipeline;
+    }
+
     public static void main(String[] args) {
         Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
                 .withLongOpt("input").withDescription("input file (*required)").create("i");
         Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
                 .withLongOpt("output").withDescription("output file").create("o");
+        Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
+                .withType(Integer.class).withLongOpt("tasks")
+                .withDescription("number of concurrent tasks").create("t");
+        Option multi = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("multi")
+                .withDescription("decode several symbols per lookup").create("m");
+        Option nio = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("nio")
+                .withDescription("use memory-mapped input").create("n");
+        Option pipeline = OptionBuilder.isRequired(false).hasArg().withArgName("buffers")
+                .withType(Integer.class).withLongOpt("pipeline")
+                .withDescription("pipeline reading, decoding and writing with -w buffers")
+                .create("w");
+        Option codebook = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("codebook").withDescription("load a pre-trained codebook")
+                .create("d");
         Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
                 .withDescription("indicate only progress").create("q");
 
         Options options = new Options();
         options.addOption(fin);
         options.addOption(fout);
+        options.addOption(tasks);
+        options.addOption(multi);
+        options.addOption(nio);
+        options.addOption(pipeline);
+        options.addOption(codebook);
         options.addOption(quiet);
         CommandLineParser parser = new BasicParser();
         HuffExpander extr = new HuffExpander();
@@ -173,14 +427,25 @@ public class HuffExpander implements Expander {
         try {
             CommandLine cmd = parser.parse(options, args);
             logger.setQuiet(cmd.hasOption("q"));
+            String t = cmd.getOptionValue("t");
             String in = cmd.getOptionValue("i");
             String out = cmd.getOptionValue("o");
             out = out == null ? in + ".out" : out;
+            extr.setTasks(t == null ? 1 : Integer.parseInt(t));
+            extr.setMulti(cmd.hasOption("m"));
+            extr.setMapped(cmd.hasOption("n"));
+            String w = cmd.getOptionValue("w");
+            extr.setPipeline(w == null ? 0 : Integer.parseInt(w));
+            if (cmd.hasOption("d")) {
+                Codebook.load(cmd.getOptionValue("d"));
+            }
+
             extr.expand(in, out);
         } catch (Exception ex) {
             HelpFormatter help = new HelpFormatter();
             help.printHelp("java HuffExtractor", "options:", options,
-                    "\nExtract the Huffman coded input file to the output file.\n");
+                    "\nExtract the Huffman coded input file to the output file\n"
+                    + "with -t tasks.\n");
         }
     }
 }
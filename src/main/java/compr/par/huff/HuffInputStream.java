@@ -0,0 +1,203 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Expands the frames written by <code>HuffOutputStream</code>, in the manner
+ * of <code>java.util.zip.InflaterInputStream</code>. A whole frame is decoded
+ * at a time and served from a buffer.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class HuffInputStream extends FilterInputStream {
+
+    private final int maxBlock; // longest frame accepted
+    private byte[] buf = new byte[0], src = new byte[0];
+    private int pos, count;  // next byte and end of buf
+    private final byte[] bitTable = new byte[ByteSym.RANGE];
+    private final DecodeTable table = new DecodeTable(bitTable);
+    private BitReader bits = new BitReader(src, 0, 0);
+    private boolean eof, closed;
+
+    public HuffInputStream(InputStream in) throws IOException {
+        this(in, ParHuffCompressor.BLOCK);
+    }
+
+    /**
+     * Reads the magic of the stream from <code>in</code>.
+     *
+     * @param in is the stream the frames are read from
+     * @param maxBlock is the largest uncompressed length of a frame, at least
+     * the block size of the writer; longer frames are rejected as corrupt
+     * @throws IOException if the stream does not start with the magic
+     */
+    public HuffInputStream(InputStream in, int maxBlock) throws IOException {
+        super(in);
+        if (maxBlock <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + maxBlock);
+        }
+
+        this.maxBlock = maxBlock;
+        byte[] magic = new byte[HuffOutputStream.MAGIC.length];
+        readFully(magic, magic.length);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != HuffOutputStream.MAGIC[i]) {
+                throw new IOException("Not a Huffman coded stream");
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == count && !fill()) {
+            return -1;
+        }
+
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        } else if (pos == count && !fill()) {
+            return -1;
+        }
+
+        int l = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, b, off, l);
+        pos += l;
+        return l;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (pos < count || fill())) {
+            int l = (int) Math.min(n - skipped, count - pos);
+            pos += l;
+            skipped += l;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * @return the number of bytes left in the current frame
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return count - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the next frame into the buffer.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        ensureOpen();
+        if (eof) {
+            return false;
+        }
+
+        int len = readInt();
+        if (len == 0) {
+            eof = true;
+            return false;
+        }
+
+        // a frame holds at most its bit table and codes of 32 bits
+        int size = readInt();
+        if (len < 0 || len > maxBlock
+                || size < 0 || size > (6L * ByteSym.RANGE + 32L * len + 7) / Byte.SIZE) {
+            throw new IOException("Corrupt frame in Huffman coded stream");
+        }
+
+        if (src.length < size) {
+            src = new byte[size];
+            bits = new BitReader(src, 0, size);
+        }
+
+        if (buf.length < len) {
+            buf = new byte[len];
+        }
+
+        readFully(src, size);
+        bits.reset(0, size);
+        HuffHeader.readBitTable(bits, bitTable);
+        try {
+            table.rebuild(bitTable);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
+
+        if (table.decode(bits, Long.MAX_VALUE, buf, 0, len) != len || bits.available() < 0) {
+            throw new IOException("Corrupt frame in Huffman coded stream");
+        }
+
+        pos = 0;
+        count = len;
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        int v = 0;
+        for (int i = 0; i < Integer.SIZE / Byte.SIZE; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of Huffman coded stream");
+            }
+
+            v = v << Byte.SIZE | b;
+        }
+
+        return v;
+    }
+
+    private void readFully(byte[] b, int len) throws IOException {
+        for (int off = 0; off < len;) {
+            int l = in.read(b, off, len - off);
+            if (l < 0) {
+                throw new EOFException("Unexpected end of Huffman coded stream");
+            }
+
+            off += l;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package compr.par.huff;
+
+import io.bitstream.BitWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the bytes written to it into the underlying stream, in the
+ * manner of <code>java.util.zip.DeflaterOutputStream</code>. The bytes are
+ * buffered into blocks and every block is counted and coded with its own
+ * table, so the stream is made of self-describing frames:
+ * <PRE>
+ * magic   4 bytes   0x89 'H' 'F' 'S'
+ * frames:
+ *   length  int     uncompressed length of the block, 0 for the end
+ *   size    int     size of the coded block in bytes
+ *   bits    size    bit table written with HuffHeader.writeBitTable,
+ *                   then the codes, padded to a byte
+ * </PRE>
+ * <code>flush</code> ends the current frame, so that everything written so
+ * far can be read on the other end of a socket.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class HuffOutputStream extends FilterOutputStream {
+
+    public static final byte[] MAGIC = {(byte) 0x89, 'H', 'F', 'S'};
+    private final byte[] buf;
+    private int count;     // bytes in buf
+    private final int maxBits;
+    private final long[] freqTable = new long[ByteSym.RANGE];
+    private final byte[] bitTable = new byte[ByteSym.RANGE];
+    private final int[] codeTable = new int[ByteSym.RANGE];
+    private Histogram kernel; // null for the plain loop
+    private final CodeBuilder builder = new CodeBuilder();
+    private final BitWriter bits;
+    private boolean finished, closed;
+
+    public HuffOutputStream(OutputStream out) throws IOException {
+        this(out, ParHuffCompressor.BLOCK);
+    }
+
+    public HuffOutputStream(OutputStream out, int blockSize) throws IOException {
+        this(out, blockSize, ParHuffCompressor.MAX_BITS);
+    }
+
+    /**
+     * Writes the magic of the stream to <code>out</code>.
+     *
+     * @param out is the stream the frames are written to
+     * @param blockSize is the largest uncompressed length of a frame
+     * @param maxBits is the longest code length, between
+     * <code>ParHuffCompressor.MIN_BITS</code> and <code>LIMIT_BITS</code>
+     * @throws IOException
+     */
+    public HuffOutputStream(OutputStream out, int blockSize, int maxBits) throws IOException {
+        super(out);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        } else if (maxBits < ParHuffCompressor.MIN_BITS || maxBits > ParHuffCompressor.LIMIT_BITS) {
+            throw new IllegalArgumentException("Code length limit out of range: " + maxBits);
+        }
+
+        buf = new byte[blockSize];
+        this.maxBits = maxBits;
+        bits = new BitWriter(blockSize / 2);
+        out.write(MAGIC);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buf[count++] = (byte) b;
+        if (count == buf.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            int l = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, l);
+            count += l;
+            off += l;
+            len -= l;
+            if (count == buf.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Ends the current frame and flushes the underlying stream, which is all
+     * it does after <code>finish</code>.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!finished) {
+            writeBlock();
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the last frame and the end of the stream, without closing the
+     * underlying stream. No more bytes can be written.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeBlock();
+            writeInt(0);
+            out.flush();
+            finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                finish();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    public boolean isHistogram() {
+        return kernel != null;
+    }
+
+    /**
+     * @param histogram tells whether to count the blocks with the
+     * <code>Histogram</code> kernel, which is faster on long runs of the same
+     * byte, or with the plain loop
+     */
+    public void setHistogram(boolean histogram) {
+        kernel = histogram ? new Histogram() : null;
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            freqTable[sym] = 0;
+        }
+
+        if (kernel != null) {
+            kernel.count(buf, 0, count, freqTable);
+        } else {
+            Counter.count(buf, 0, count, freqTable);
+        }
+
+        builder.makeBitTable(freqTable, maxBits, bitTable);
+        builder.makeCodeTable(bitTable, codeTable);
+        bits.reset();
+        HuffHeader.writeBitTable(bits, bitTable);
+        bits.encode(buf, 0, count, codeTable, bitTable);
+        bits.flush();
+        writeInt(count);
+        writeInt(bits.size());
+        out.write(bits.array(), 0, bits.size());
+        count = 0;
+    }
+
+    private void writeInt(int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+}
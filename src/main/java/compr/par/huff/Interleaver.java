@@ -0,0 +1,143 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import io.bitstream.BitWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codes a block in <code>STREAMS</code> interleaved bitstreams: symbol
+ * <code>i</code> of the block goes to stream <code>i % STREAMS</code>. In a
+ * single stream every code must be decoded before the next one can be found,
+ * while the streams are independent, so the decoder can advance all of them
+ * in the same iteration and a superscalar core overlaps their lookups.
+ * <P>
+ * The streams follow each other in the bits of the block, after a jump table
+ * with the bit lengths of all but the last one:
+ * <PRE>
+ * jump    32 bits   per stream but the last: its length in bits
+ * streams           the codes of each stream in order
+ * </PRE>
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Interleaver {
+
+    public static final int STREAMS = 4;
+    private static final ThreadLocal<BitWriter[]> WRITERS = new ThreadLocal<BitWriter[]>() {
+        @Override
+        protected BitWriter[] initialValue() {
+            BitWriter[] writers = new BitWriter[STREAMS];
+            for (int s = 0; s < STREAMS; s++) {
+                writers[s] = new BitWriter(Encoder.BUF);
+            }
+
+            return writers;
+        }
+    };
+
+    private Interleaver() {
+    }
+
+    /**
+     * Codes the remaining bytes of <code>src</code> in interleaved streams,
+     * preceded by their jump table. The position of <code>src</code> is not
+     * changed.
+     *
+     * @param src holds the bytes of a block
+     * @param codes holds the code of each symbol
+     * @param lengths holds the bit length of each code
+     * @param out is the writer of the jump table and the streams
+     */
+    public static void encode(ByteBuffer src, int[] codes, byte[] lengths, BitWriter out) {
+        BitWriter[] writers = WRITERS.get();
+        long[] bits = new long[STREAMS];
+        for (int s = 0; s < STREAMS; s++) {
+            ByteBuffer stream = src.duplicate();
+            stream.position(Math.min(src.position() + s, src.limit()));
+            writers[s].reset();
+            writers[s].encode(stream, STREAMS, codes, lengths);
+            bits[s] = writers[s].position();
+            writers[s].flush();
+        }
+
+        for (int s = 0; s < STREAMS - 1; s++) {
+            out.write(Integer.SIZE, (int) bits[s]);
+        }
+
+        for (int s = 0; s < STREAMS; s++) {
+            out.write(writers[s].array(), bits[s]);
+        }
+    }
+
+    /**
+     * Decodes a block coded with <code>encode</code>, advancing all streams
+     * in every iteration.
+     *
+     * @param src holds the bits of the block from its position
+     * @param in is a reader of <code>src</code> from its position, at the
+     * jump table; it is left after the jump table
+     * @param table is the decode table of the block
+     * @param dst receives the bytes of the block
+     * @param off is the index of the first byte in <code>dst</code>
+     * @param len is the length of the block
+     * @throws IOException if a stream does not end where the jump table says
+     */
+    public static void decode(ByteBuffer src, BitReader in, DecodeTable table, byte[] dst,
+            int off, int len) throws IOException {
+        long[] bits = new long[STREAMS - 1];
+        for (int s = 0; s < STREAMS - 1; s++) {
+            bits[s] = in.read(Integer.SIZE) & 0xffffffffL;
+        }
+
+        BitReader[] streams = new BitReader[STREAMS];
+        int[] skip = new int[STREAMS];
+        long start = in.position();
+        for (int s = 0; s < STREAMS; s++) {
+            if (start > (long) src.remaining() * Byte.SIZE) {
+                throw new IOException("Interleaved stream " + s + " starts after the block");
+            }
+
+            ByteBuffer buf = src.duplicate();
+            buf.position(src.position() + (int) (start / Byte.SIZE));
+            skip[s] = (int) (start % Byte.SIZE);
+            streams[s] = new BitReader(buf);
+            streams[s].skip(skip[s]);
+            if (s < STREAMS - 1) {
+                start += bits[s];
+            }
+        }
+
+        BitReader s0 = streams[0], s1 = streams[1], s2 = streams[2], s3 = streams[3];
+        int i = off, end = off + len, check = 0;
+        for (int stop = off + (len & -STREAMS); i < stop; i += STREAMS) {
+            int a = table.decode(s0), b = table.decode(s1);
+            int c = table.decode(s2), d = table.decode(s3);
+            dst[i] = (byte) a;
+            dst[i + 1] = (byte) b;
+            dst[i + 2] = (byte) c;
+            dst[i + 3] = (byte) d;
+            check |= a | b | c | d;
+        }
+
+        for (int s = 0; i < end; i++, s++) {
+            int sym = table.decode(streams[s]);
+            dst[i] = (byte) sym;
+            check |= sym;
+        }
+
+        if ((check & ~0xff) != 0) {
+            throw new IOException("Unexpected EoF in interleaved block");
+        }
+
+        for (int s = 0; s < STREAMS - 1; s++) {
+            if (streams[s].position() - skip[s] != bits[s]) {
+                throw new IOException("Interleaved stream " + s + " does not match its length");
+            }
+        }
+
+        if (s3.available() < 0) {
+            throw new IOException("Unexpected end of interleaved block");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+
+/**
+ * Lookup table that decodes several symbols at once. Each entry of the next
+ * <code>PEEK</code> bits holds all the whole codes that fit in them, up to
+ * <code>SYMS</code> symbols, which pays off on skewed inputs where the codes
+ * are short. Entries that start with a long code or with <code>EoF</code>
+ * fall back to decoding a single symbol.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class MultiDecodeTable extends DecodeTable {
+
+    public static final int PEEK = 12; // 2^12 entries, 32 KB
+    public static final int SYMS = 4;  // most symbols per entry
+    private final long[] multi = new long[1 << PEEK]; // syms | cnt << 32 | bits << 40
+
+    /**
+     * @param bitTable holds the code length of each symbol (0-32), 0 for
+     * symbols without a code
+     */
+    public MultiDecodeTable(byte[] bitTable) {
+        super(bitTable, PEEK);
+        buildMulti();
+    }
+
+    @Override
+    public void rebuild(byte[] bitTable) {
+        super.rebuild(bitTable);
+        buildMulti();
+    }
+
+    private void buildMulti() {
+        int mask = multi.length - 1;
+        for (int i = 0; i < multi.length; i++) {
+            long syms = 0;
+            int cnt = 0, bits = 0;
+            while (cnt < SYMS) {
+                int entry = table[(i << bits) & mask];
+                int sym = entry >>> Byte.SIZE, len = entry & 0xff;
+                if (entry == 0 || sym == ByteSym.EoF || bits + len > PEEK) {
+                    break;
+                }
+
+                syms |= (long) sym << (cnt * Byte.SIZE);
+                bits += len;
+                cnt++;
+            }
+
+            multi[i] = cnt == 0 ? 0 : syms | (long) cnt << 32 | (long) bits << 40;
+        }
+    }
+
+    @Override
+    public int decode(BitReader in, long end, byte[] dst, int off, int len) {
+        int i = 0;
+        while (i + SYMS <= len && in.position() < end) {
+            long entry = multi[in.peek(PEEK)];
+            if (entry != 0) {
+                int o = off + i;
+                in.consume((int) (entry >>> 40));
+                dst[o] = (byte) entry;
+                dst[o + 1] = (byte) (entry >>> 8);
+                dst[o + 2] = (byte) (entry >>> 16);
+                dst[o + 3] = (byte) (entry >>> 24);
+                i += (int) (entry >>> 32) & 0xff;
+            } else {
+                int sym = decode(in);
+                if (sym == ByteSym.EoF) {
+                    return -(i + 1);
+                }
+
+                dst[off + i++] = (byte) sym;
+            }
+        }
+
+        int n = super.decode(in, end, dst, off + i, len - i);
+        return n < 0 ? n - i : n + i;
+    }
+}
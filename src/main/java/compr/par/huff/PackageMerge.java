@@ -0,0 +1,93 @@
+package compr.par.huff;
+
+/**
+ * Computes optimal code lengths no longer than a limit with the
+ * package-merge algorithm of Larmore and Hirschberg.
+ * <P>
+ * At every level the leaves are merged with the packages of pairs of items
+ * from the level below, and the cheapest <code>2n - 2</code> items of the top
+ * level are selected. The length of a code is the number of levels at which
+ * its leaf is selected. Since the selected leaves of a level are always the
+ * lightest ones, only the leaf or package flags of each merged list are kept.
+ * <P>
+ * The working arrays are allocated once, so an instance can be reused for
+ * many tables, but not concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class PackageMerge {
+
+    private final long[] items, merged;
+    private final boolean[][] leaf;
+
+    /**
+     * @param symbols is the largest number of symbols
+     * @param maxBits is the largest code length limit
+     */
+    public PackageMerge(int symbols, int maxBits) {
+        items = new long[2 * symbols];
+        merged = new long[2 * symbols];
+        leaf = new boolean[maxBits][2 * symbols];
+    }
+
+    /**
+     * @param weights are the weights of the symbols in ascending order, all
+     * positive
+     * @param n is the number of symbols
+     * @param maxBits is the longest allowed code length
+     * @param lengths receives the code length of each symbol, in the order of
+     * <code>weights</code>
+     * @throws IllegalArgumentException if the symbols do not fit in
+     * <code>maxBits</code>
+     */
+    public void lengths(long[] weights, int n, int maxBits, int[] lengths) {
+        if (n == 1) {
+            lengths[0] = 1;
+            return;
+        } else if (n > 1L << Math.min(maxBits, Integer.SIZE - 2)) {
+            throw new IllegalArgumentException(
+                    n + " symbols do not fit in codes of " + maxBits + " bits");
+        }
+
+        // merge the leaves with the packages of the level below, deepest first
+        long[] items = this.items, merged = this.merged;
+        System.arraycopy(weights, 0, items, 0, n);
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            leaf[0][i] = true;
+            lengths[i] = 0;
+        }
+
+        for (int level = 1; level < maxBits; level++) {
+            int packs = len / 2;
+            len = n + packs;
+            for (int i = 0, l = 0, p = 0; i < len; i++) {
+                long pack = p < packs ? items[2 * p] + items[2 * p + 1] : Long.MAX_VALUE;
+                if (l < n && weights[l] <= pack) {
+                    merged[i] = weights[l++];
+                    leaf[level][i] = true;
+                } else {
+                    merged[i] = pack;
+                    leaf[level][i] = false;
+                    p++;
+                }
+            }
+
+            long[] swap = items;
+            items = merged;
+            merged = swap;
+        }
+
+        // select the 2n - 2 cheapest items of the top level and expand them
+        for (int level = maxBits - 1, m = 2 * n - 2; level >= 0; level--) {
+            int leaves = 0;
+            for (int i = 0; i < m; i++) {
+                if (leaf[level][i]) {
+                    lengths[leaves++]++;
+                }
+            }
+
+            m = 2 * (m - leaves);
+        }
+    }
+}
@@ -1,25 +1,22 @@
 package compr.par.huff;
 
 import compr.par.ParCompressor;
-import io.bitstream.BitOutputStream;
-import java.io.BufferedOutputStream;
+import io.bitstream.BitWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import java.util.Stack;
-import java.util.TreeSet;
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -36,7 +33,21 @@ import test.TimeLogger;
 public class ParHuffCompressor extends ParCompressor {
 
     public static final int BUF = 64 * 1024; // 64 KB
+    public static final int BLOCK = 1024 * 1024; // 1 MB
+    public static final int MIN_BITS = 9, MAX_BITS = 24, LIMIT_BITS = Integer.SIZE;
     private static final TimeLogger logger = TimeLogger.getLogger();
+    private boolean mapped; // memory-mapped input
+    private long cache;     // memory budget in bytes to read the input once, 0 to read twice
+    private int maxBits = MAX_BITS; // longest code length
+    private boolean blockTables;    // a table for every block
+    private int effort;             // of partitioning into blocks, 0 for fixed blocks
+    private int chunk = Counter.CHUNK; // bytes counted at a time by a task
+    private boolean histogram;      // count with the Histogram kernel
+    private double sample = 1;      // fraction of the input counted for the table
+    private int pipeline;           // buffers of the encoding pipeline, 0 for none
+    private int streams = 1;        // interleaved streams per block
+    private boolean context;        // order-1 tables chosen by the previous byte
+    private Codebook codebook;      // pre-trained table, null to count the input
 
     public ParHuffCompressor(int tasks) {
         super(tasks);
@@ -52,17 +63,48 @@ public class ParHuffCompressor extends ParCompressor {
         logger.resetTime();
         logger.log(MessageFormat.format("Starting compression of file {0} with {1} task{2}",
                 fin.getName(), getTasks(), getTasks() > 1 ? "s" : ""));
-        Collection<ByteSym> symbols = makeSymbols(makeHuffTree(makeFreqTable(fin)));
-        encode(fin, fout, symbols, makeCodeTable(symbols));
+        if (getCodebook() != null) {
+            logger.log("Using codebook " + getCodebook());
+            encode(fin, fout, getCodebook().getBitTable(), getCodebook().getCodeTable(),
+                    makeBounds(fin), null, null, null);
+            return;
+        } else if (isContext()) {
+            encode(fin, fout, null, null, makeBounds(fin), null, null, makeContextModel(fin));
+            return;
+        } else if (getEffort() > 0) {
+            Partitioner part = makePartitioner(fin);
+            encode(fin, fout, null, null, part.partition(), part, null, null);
+            return;
+        } else if (isBlockTables()) {
+            encode(fin, fout, null, null, makeBounds(fin), null, null, null);
+            return;
+        }
+
+        // a sample leaves blocks uncounted, so they cannot be cached
+        BlockCache blocks = getCache() > 0 && getSample() == 1
+                ? new BlockCache((int) ((fin.length() + BLOCK - 1) / BLOCK), BLOCK, getCache())
+                : null;
+        try {
+            AtomicLong[] freqTable = makeFreqTable(fin, blocks, getSample());
+            CodeBuilder builder = new CodeBuilder();
+            byte[] bitTable = makeBitTable(builder, freqTable);
+            encode(fin, fout, bitTable, makeCodeTable(builder, bitTable), makeBounds(fin),
+                    null, blocks, null);
+        } finally {
+            if (blocks != null) {
+                blocks.close();
+            }
+        }
     }
 
-    public void printFreqTable(File fin, File fout) throws IOException, InterruptedException {
+    public void printFreqTable(File fin, File fout)
+            throws IOException, InterruptedException, ExecutionException {
         Writer out = new FileWriter(fout);
         try {
             logger.resetTime();
 //            logger.log(MessageFormat.format("Building frequency table of file {0} with {1} task{2}",
 //                    fin.getName(), getTasks(), getTasks() > 1 ? "s" : ""));
-            AtomicLong[] freqTable = makeFreqTable(fin);
+            AtomicLong[] freqTable = makeFreqTable(fin, null, 1);
             StringBuilder table = new StringBuilder();
             for (int sym = 0; sym < ByteSym.EoF; sym++) {
                 table.append(String.format("%03d: %d\n", sym, freqTable[sym].get()));
@@ -77,120 +119,573 @@ public class ParHuffCompressor extends ParCompressor {
         }
     }
 
-    public void printFreqTable(String fin, String fout) throws IOException, InterruptedException {
+    public void printFreqTable(String fin, String fout)
+            throws IOException, InterruptedException, ExecutionException {
         printFreqTable(new File(fin), new File(fout));
     }
 
-    private AtomicLong[] makeFreqTable(File fin) throws InterruptedException {
-        int tasks = getTasks();
-        ExecutorService exec = Executors.newFixedThreadPool(tasks);
-        AtomicLong[] freqTable = new AtomicLong[ByteSym.RANGE];
-        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
-            freqTable[sym] = new AtomicLong();
+    /**
+     * Trains a codebook on a corpus of files like the ones to be compressed
+     * with it, from their total byte frequencies.
+     *
+     * @param corpus are the files of the corpus
+     * @return the codebook, with a code for every byte
+     */
+    public Codebook trainCodebook(File... corpus)
+            throws InterruptedException, ExecutionException {
+        long[] freq = new long[ByteSym.RANGE];
+        for (File fin : corpus) {
+            AtomicLong[] freqTable = makeFreqTable(fin, null, 1);
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                freq[sym] += freqTable[sym].get();
+            }
         }
 
+        Codebook book = Codebook.train(freq, getMaxBits());
+        logger.log(MessageFormat.format("Codebook {0} trained on {1} file{2}",
+                book, corpus.length, corpus.length > 1 ? "s" : ""));
+        return book;
+    }
+
+    /**
+     * Counts the frequencies of the input, or of a <code>sample</code>
+     * fraction of its chunks. A sample is counted in two halves to estimate
+     * the loss of ratio, and symbols missing from it get a frequency of 1, so
+     * that every byte has a code.
+     */
+    private AtomicLong[] makeFreqTable(File fin, BlockCache blocks, double sample)
+            throws InterruptedException, ExecutionException {
+        int tasks = getTasks();
+        AtomicLong[] freqTable = newFreqTable();
+        AtomicLong[] heldOut = sample < 1 ? newFreqTable() : null;
         freqTable[ByteSym.EoF].incrementAndGet();
+        ChunkCursor chunks = blocks != null
+                ? new ChunkCursor(fin.length(), blocks.getBlockSize())
+                : new ChunkCursor(fin.length(), getChunk(), sample);
         Collection<Counter> counters = new ArrayList<Counter>(tasks);
         for (int t = 0; t < tasks; t++) {
-            counters.add(new Counter(fin, t, tasks, freqTable));
+            counters.add(blocks != null
+                    ? new Counter(fin, t, tasks, chunks, freqTable, blocks, isHistogram())
+                    : new Counter(fin, t, tasks, chunks, freqTable, heldOut, isMapped(),
+                            isHistogram()));
+        }
+
+        ExecutorService exec = acquireExecutor();
+        try {
+            for (Future<Void> counter : exec.invokeAll(counters)) {
+                counter.get();
+            }
+        } finally {
+            releaseExecutor(exec);
+        }
+
+        if (heldOut != null) {
+            logSampleLoss(freqTable, heldOut, chunks);
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                freqTable[sym].addAndGet(heldOut[sym].get());
+                if (freqTable[sym].get() == 0) {
+                    freqTable[sym].set(1);
+                }
+            }
         }
 
-        exec.invokeAll(counters);
-        exec.shutdown();
         logger.log("Frequency table completed");
         return freqTable;
     }
 
-    private HuffNode makeHuffTree(AtomicLong[] freqTable) {
-        TreeSet<HuffNode> set = new TreeSet<HuffNode>();
+    private static AtomicLong[] newFreqTable() {
+        AtomicLong[] freqTable = new AtomicLong[ByteSym.RANGE];
         for (int sym = 0; sym < ByteSym.RANGE; sym++) {
-            long cnt = freqTable[sym].get();
-            if (cnt > 0) {
-                set.add(new HuffNode(sym, cnt));
-            }
+            freqTable[sym] = new AtomicLong();
         }
 
-        while (set.size() > 1) {
-            HuffNode lo = set.pollFirst(), hi = set.pollFirst();
-            set.add(new HuffNode(lo, hi));
+        return freqTable;
+    }
+
+    /**
+     * Estimates the loss of ratio of coding with a sampled table: each half
+     * of the sample is coded with the table of the other half, and compared
+     * with its own table. Since the tables are built from half of the sample,
+     * the estimate is on the safe side.
+     */
+    private void logSampleLoss(AtomicLong[] even, AtomicLong[] odd, ChunkCursor chunks) {
+        if (chunks.getSamples() < 2) {
+            logger.log("Table estimated from 1 chunk, no ratio loss estimate");
+            return;
         }
 
-        logger.log("Huffman tree completed");
-        return set.first();
-    }
+        long[][] halves = new long[2][ByteSym.RANGE];
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            halves[0][sym] = even[sym].get();
+            halves[1][sym] = odd[sym].get();
+        }
 
-    private Collection<ByteSym> makeSymbols(HuffNode root) {
-        List<ByteSym> symbols = new ArrayList<ByteSym>(ByteSym.RANGE);
-        Stack<HuffNode> stack = new Stack<HuffNode>();
-        stack.push(root);
-        if (root.isLeaf()) {
-            root.setBits(1);
+        CodeBuilder builder = new CodeBuilder();
+        byte[][] own = new byte[2][ByteSym.RANGE], floored = new byte[2][ByteSym.RANGE];
+        for (int h = 0; h < 2; h++) {
+            builder.makeBitTable(halves[h], getMaxBits(), own[h]);
+            long[] freq = halves[h].clone();
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                freq[sym] = Math.max(freq[sym], 1);
+            }
+
+            builder.makeBitTable(freq, getMaxBits(), floored[h]);
         }
 
-        while (!stack.empty()) {
-            HuffNode node = stack.pop();
-            if (node.isLeaf()) {
-                symbols.add(new ByteSym(node.getSym(), node.getBits()));
-            } else {
-                node.lo.setBits(node.getBits() + 1);
-                node.hi.setBits(node.getBits() + 1);
-                stack.push(node.lo);
-                stack.push(node.hi);
+        long ownBits = 0, crossBits = 0;
+        for (int h = 0; h < 2; h++) {
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                ownBits += halves[h][sym] * own[h][sym];
+                crossBits += halves[h][sym] * floored[1 - h][sym];
             }
         }
 
-        Collections.sort(symbols);
-        logger.log("Bit table completed");
-        return Collections.unmodifiableCollection(symbols);
+        double loss = ownBits > 0 ? (double) (crossBits - ownBits) / ownBits * 100 : 0;
+        logger.log(MessageFormat.format(
+                "Table estimated from {0} of {1} chunks, estimated ratio loss {2,number,0.00}%",
+                chunks.getSamples(), chunks.getChunks(), loss));
     }
 
-    private int[] makeCodeTable(Collection<ByteSym> symbols) {
-        int[] codeTable = new int[ByteSym.RANGE];
-        byte bits = 1;
-        int code = -1;
-        for (ByteSym sym : symbols) {
-            code = ++code << (sym.getBits() - bits);
-            bits = sym.getBits();
-            codeTable[sym.intVal()] = code;
+    private byte[] makeBitTable(CodeBuilder builder, AtomicLong[] freqTable) {
+        long[] freq = new long[ByteSym.RANGE];
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            freq[sym] = freqTable[sym].get();
         }
 
+        byte[] bitTable = new byte[ByteSym.RANGE];
+        builder.makeBitTable(freq, getMaxBits(), bitTable);
+        logger.log("Bit table completed");
+        return bitTable;
+    }
+
+    private int[] makeCodeTable(CodeBuilder builder, byte[] bitTable) {
+        int[] codeTable = new int[ByteSym.RANGE];
+        builder.makeCodeTable(bitTable, codeTable);
         logger.log("Code table completed");
         return codeTable;
     }
 
-    private void encode(File fin, File fout, Collection<ByteSym> symbols, int[] codeTable)
-            throws IOException {
-        InputStream in = new FileInputStream(fin);
-        BitOutputStream out = new BitOutputStream(
-                new BufferedOutputStream(new FileOutputStream(fout), BUF));
+    /**
+     * Counts the frequencies of the input by previous byte, resetting the
+     * context at every block, and clusters the contexts.
+     */
+    private ContextModel makeContextModel(File fin)
+            throws InterruptedException, ExecutionException {
+        int tasks = getTasks();
+        AtomicLong[][] contexts = new AtomicLong[ContextModel.CONTEXTS][];
+        for (int ctx = 0; ctx < ContextModel.CONTEXTS; ctx++) {
+            contexts[ctx] = newFreqTable();
+        }
+
+        ChunkCursor chunks = new ChunkCursor(fin.length(), getChunk());
+        Collection<Counter> counters = new ArrayList<Counter>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            counters.add(new Counter(fin, t, tasks, chunks, contexts, BLOCK));
+        }
+
+        ExecutorService exec = acquireExecutor();
+        try {
+            for (Future<Void> counter : exec.invokeAll(counters)) {
+                counter.get();
+            }
+        } finally {
+            releaseExecutor(exec);
+        }
+
+        logger.log("Context frequency tables completed");
+        long[][] freq = new long[ContextModel.CONTEXTS][ByteSym.RANGE];
+        for (int ctx = 0; ctx < ContextModel.CONTEXTS; ctx++) {
+            for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+                freq[ctx][sym] = contexts[ctx][sym].get();
+            }
+        }
+
+        ContextModel model = ContextModel.build(freq, getMaxBits());
+        logger.log(MessageFormat.format("Context model of {0} table{1} completed",
+                model.getTables(), model.getTables() > 1 ? "s" : ""));
+        return model;
+    }
+
+    private Partitioner makePartitioner(File fin)
+            throws InterruptedException, ExecutionException {
+        Partitioner part = new Partitioner(fin, getEffort(), getMaxBits());
+        ExecutorService exec = acquireExecutor();
+        try {
+            part.count(exec, getTasks(), isMapped(), isHistogram());
+        } finally {
+            releaseExecutor(exec);
+        }
+
+        logger.log("Granule histograms completed");
+        return part;
+    }
+
+    /**
+     * @return the offsets of fixed blocks of <code>BLOCK</code> bytes followed
+     * by the length of the input
+     */
+    private long[] makeBounds(File fin) {
+        long len = fin.length();
+        long[] bounds = new long[(int) ((len + BLOCK - 1) / BLOCK) + 1];
+        for (int b = 0; b < bounds.length; b++) {
+            bounds[b] = Math.min((long) b * BLOCK, len);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Encodes the blocks of the input between <code>bounds</code> and
+     * stitches them in order. Without a shared <code>bitTable</code> every
+     * block is coded with its own table, from the frequencies counted by
+     * <code>part</code> if not null.
+     */
+    private void encode(File fin, File fout, byte[] bitTable, int[] codeTable, long[] bounds,
+            Partitioner part, BlockCache blocks, ContextModel model)
+            throws IOException, InterruptedException, ExecutionException {
+        if (getPipeline() > 0 && blocks == null) {
+            encodePipelined(fin, fout, bitTable, codeTable, bounds, part, model);
+            return;
+        }
+
+        int tasks = getTasks();
+        ExecutorService exec = acquireExecutor();
+        Queue<Future<Encoder>> encoders = new LinkedList<Future<Encoder>>();
+        FileChannel out = new RandomAccessFile(fout, "rw").getChannel();
         try {
-            byte[] buf = new byte[BUF];
-            byte[] bitTable = new byte[ByteSym.RANGE];
-            for (ByteSym sym : symbols) {
-                bitTable[sym.intVal()] = sym.getBits();
+            long len = fin.length();
+            int count = bounds.length - 1;
+            HuffHeader header = makeHeader(len, bitTable, count, model);
+            long pos = header.size(); // the header is written once the index is known
+            out.truncate(0);
+            BitWriter bits = new BitWriter(BUF);
+            if (model != null) {
+                model.write(bits);
             }
 
-            out.write(bitTable);
-            int l;
-            while ((l = in.read(buf)) > 0) { // NOTE: nested assignment
-                for (int i = 0; i < l; i++) {
-                    int sym = ByteSym.uByte(buf[i]);
-                    out.write(bitTable[sym], codeTable[sym]);
+            for (int b = 0, next = 0; b < count; b++) {
+                for (; next < count && next < b + 2 * tasks; next++) {
+                    long off = bounds[next];
+                    int l = (int) (bounds[next + 1] - off);
+                    encoders.add(exec.submit(model != null
+                            ? new Encoder(fin, off, l, model, isMapped())
+                            : bitTable == null
+                            ? new Encoder(fin, off, l, part != null ? part.freqTable(off, l) : null,
+                                    getMaxBits(), isMapped(), getStreams(), isHistogram())
+                            : blocks != null
+                            ? new Encoder(blocks, next, l, bitTable, codeTable, getStreams())
+                            : new Encoder(fin, off, l, bitTable, codeTable, isMapped(),
+                                    getStreams())));
                 }
+
+                Encoder encoder = encoders.remove().get();
+                header.setBlock(b, bits.position(), encoder.getLength());
+                encoder.writeTo(bits);
+                pos = bits.drain(out, pos);
             }
 
-            out.write(bitTable[ByteSym.EoF], codeTable[ByteSym.EoF]);
-            out.flush();
+            bits.flush();
+            bits.drain(out, pos);
+            header.write(fout);
             long ratio = Math.round((double) fout.length() / fin.length() * 100);
             logger.log(MessageFormat.format(
                     "Compression completed to file {0} with ratio {1}%",
                     fout.getName(), ratio));
         } finally {
+            for (Future<Encoder> encoder : encoders) {
+                encoder.cancel(true);
+            }
+
+            releaseExecutor(exec);
+            out.close();
+        }
+    }
+
+    /**
+     * @return the header of <code>count</code> blocks with the shared
+     * <code>bitTable</code>, by id if it is the codebook, or with the order-1
+     * <code>model</code>, or with a table per block if both are null
+     */
+    private HuffHeader makeHeader(long len, byte[] bitTable, int count, ContextModel model) {
+        int flags = getStreams() > 1 ? HuffHeader.INTERLEAVED : 0;
+        return model != null
+                ? new HuffHeader(len, new byte[ByteSym.RANGE], count, HuffHeader.ORDER1)
+                : bitTable != null && getCodebook() != null
+                ? new HuffHeader(len, getCodebook().getId(), count, flags)
+                : bitTable != null
+                ? new HuffHeader(len, bitTable, count, flags)
+                : new HuffHeader(len, new byte[ByteSym.RANGE], count,
+                        flags | HuffHeader.BLOCK_TABLES);
+    }
+
+    /**
+     * Encodes like <code>encode</code> in a <code>Pipeline</code> of
+     * <code>pipeline</code> buffers: a reader thread reads the blocks into
+     * recycled buffers, the tasks encode them, and this thread stitches them
+     * in order. At most that many blocks and their codes are in memory.
+     */
+    private void encodePipelined(final File fin, final File fout, final byte[] bitTable,
+            final int[] codeTable, final long[] bounds, final Partitioner part,
+            final ContextModel model)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService exec = acquireExecutor();
+        final FileChannel in = new RandomAccessFile(fin, "r").getChannel();
+        final FileChannel out = new RandomAccessFile(fout, "rw").getChannel();
+        try {
+            long len = fin.length();
+            final int count = bounds.length - 1;
+            final HuffHeader header = makeHeader(len, bitTable, count, model);
+            final BitWriter bits = new BitWriter(BUF);
+            if (model != null) {
+                model.write(bits);
+            }
+
+            final long[] pos = {header.size()}; // the header is written once the index is known
+            out.truncate(0);
+            new Pipeline<EncodeSlot>(exec, getPipeline()) {
+                @Override
+                protected EncodeSlot newSlot() {
+                    return new EncodeSlot();
+                }
+
+                @Override
+                protected void read(EncodeSlot slot, int item) throws IOException {
+                    long off = bounds[item];
+                    slot.len = (int) (bounds[item + 1] - off);
+                    if (slot.data == null || slot.data.length < slot.len) {
+                        slot.data = new byte[slot.len];
+                    }
+
+                    ByteBuffer buf = ByteBuffer.wrap(slot.data, 0, slot.len);
+                    while (buf.hasRemaining()) {
+                        if (in.read(buf, off + buf.position()) < 0) {
+                            throw new IOException("Unexpected end of " + fin.getName());
+                        }
+                    }
+
+                    slot.freq = part != null ? part.freqTable(off, slot.len) : null;
+                }
+
+                @Override
+                protected void process(EncodeSlot slot) {
+                    BitWriter code = slot.code;
+                    ByteBuffer src = ByteBuffer.wrap(slot.data, 0, slot.len);
+                    code.reset();
+                    if (model != null) {
+                        model.encode(src, code);
+                    } else if (bitTable == null) {
+                        Encoder.encodeOwn(src, slot.freq, getMaxBits(), getStreams(),
+                                isHistogram(), code);
+                    } else {
+                        Encoder.encode(src, codeTable, bitTable, getStreams(), code);
+                    }
+
+                    slot.bits = code.position();
+                    code.flush();
+                }
+
+                @Override
+                protected void write(EncodeSlot slot, int item) throws IOException {
+                    header.setBlock(item, bits.position(), slot.len);
+                    bits.write(slot.code.array(), slot.bits);
+                    pos[0] = bits.drain(out, pos[0]);
+                }
+            }.run(count);
+
+            bits.flush();
+            bits.drain(out, pos[0]);
+            header.write(fout);
+            long ratio = Math.round((double) fout.length() / fin.length() * 100);
+            logger.log(MessageFormat.format(
+                    "Compression completed to file {0} with ratio {1}%",
+                    fout.getName(), ratio));
+        } finally {
+            releaseExecutor(exec);
             in.close();
             out.close();
         }
     }
 
+    /**
+     * A buffer of the encoding pipeline: a block of the input and its codes.
+     */
+    private static class EncodeSlot {
+
+        private byte[] data;
+        private int len;
+        private long[] freq; // of the own table, counted if null
+        private final BitWriter code = new BitWriter(BUF);
+        private long bits;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public long getCache() {
+        return cache;
+    }
+
+    public void setCache(long cache) {
+        this.cache = cache;
+    }
+
+    public int getMaxBits() {
+        return maxBits;
+    }
+
+    /**
+     * @param maxBits is the longest code length, between <code>MIN_BITS</code>
+     * and <code>LIMIT_BITS</code>
+     */
+    public void setMaxBits(int maxBits) {
+        if (maxBits < MIN_BITS || maxBits > LIMIT_BITS) {
+            throw new IllegalArgumentException("Code length limit out of range: " + maxBits);
+        }
+
+        this.maxBits = maxBits;
+    }
+
+    public boolean isBlockTables() {
+        return blockTables;
+    }
+
+    /**
+     * @param blockTables tells whether to code every block with its own
+     * table, which suits inputs whose statistics change along the file
+     */
+    public void setBlockTables(boolean blockTables) {
+        this.blockTables = blockTables;
+    }
+
+    public int getEffort() {
+        return effort;
+    }
+
+    /**
+     * @param effort is the effort level of partitioning the input into blocks
+     * with their own tables by their estimated cost, between 0 for fixed
+     * blocks and <code>Partitioner.MAX_EFFORT</code>
+     */
+    public void setEffort(int effort) {
+        if (effort < 0 || effort > Partitioner.MAX_EFFORT) {
+            throw new IllegalArgumentException("Effort level out of range: " + effort);
+        }
+
+        this.effort = effort;
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+    /**
+     * @param chunk is the number of bytes a counting task claims at a time;
+     * smaller chunks balance the tasks better, larger ones claim less often
+     */
+    public void setChunk(int chunk) {
+        if (chunk <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunk);
+        }
+
+        this.chunk = chunk;
+    }
+
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param histogram tells whether to count with the
+     * <code>Histogram</code> kernel, in the count pass and in the blocks with
+     * their own tables, or with the plain loop, which is faster unless the
+     * input has long runs of the same byte
+     */
+    public void setHistogram(boolean histogram) {
+        this.histogram = histogram;
+    }
+
+    public double getSample() {
+        return sample;
+    }
+
+    /**
+     * @param sample is the fraction of the input, spread across it in chunks,
+     * from which the table is estimated (0-1], or 1 to count everything; a
+     * sample cannot be combined with a cache
+     */
+    public void setSample(double sample) {
+        if (!(sample > 0 && sample <= 1)) {
+            throw new IllegalArgumentException("Sample fraction out of range: " + sample);
+        }
+
+        this.sample = sample;
+    }
+
+    public int getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline is the number of block buffers of a pipeline reading,
+     * encoding and writing the blocks at the same time, which bounds the
+     * memory to as many blocks and their codes, or 0 to encode without one;
+     * the pipeline is not used together with a cache
+     */
+    public void setPipeline(int pipeline) {
+        if (pipeline < 0) {
+            throw new IllegalArgumentException("Number of buffers out of range: " + pipeline);
+        }
+
+        this.pipeline = pipeline;
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * @param streams is 1 to code every block in a single stream, or
+     * <code>Interleaver.STREAMS</code> to split it into interleaved streams
+     * that are decoded together
+     */
+    public void setStreams(int streams) {
+        if (streams != 1 && streams != Interleaver.STREAMS) {
+            throw new IllegalArgumentException("Unsupported number of streams: " + streams);
+        }
+
+        this.streams = streams;
+    }
+
+    public boolean isContext() {
+        return context;
+    }
+
+    /**
+     * @param context tells whether to code every byte with a table chosen by
+     * the byte before it, in fixed blocks; the whole input is counted and
+     * the blocks are coded in a single stream
+     */
+    public void setContext(boolean context) {
+        this.context = context;
+    }
+
+    public Codebook getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * @param codebook is a pre-trained table to code the input with, without
+     * counting it, or null to build a table from the input
+     */
+    public void setCodebook(Codebook codebook) {
+        this.codebook = codebook;
+    }
+
     public static void main(String[] args) {
         Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
                 .withLongOpt("input").withDescription("input file (*required)").create("i");
@@ -199,6 +694,39 @@ public class ParHuffCompressor extends ParCompressor {
         Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
                 .withType(Integer.class).withLongOpt("tasks")
                 .withDescription("number of concurrent tasks").create("t");
+        Option nio = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("nio")
+                .withDescription("use memory-mapped input").create("n");
+        Option cache = OptionBuilder.isRequired(false).hasArg().withArgName("megabytes")
+                .withType(Long.class).withLongOpt("cache")
+                .withDescription("read the input once, caching up to -c MB").create("c");
+        Option limit = OptionBuilder.isRequired(false).hasArg().withArgName("bits")
+                .withType(Integer.class).withLongOpt("limit")
+                .withDescription("longest code length (9-32)").create("l");
+        Option blockTables = OptionBuilder.isRequired(false).hasArg(false)
+                .withLongOpt("blocks")
+                .withDescription("code every block with its own table").create("b");
+        Option effort = OptionBuilder.isRequired(false).hasArg().withArgName("level")
+                .withType(Integer.class).withLongOpt("effort")
+                .withDescription("partition blocks with own tables by cost (0-3)").create("e");
+        Option chunk = OptionBuilder.isRequired(false).hasArg().withArgName("kilobytes")
+                .withType(Integer.class).withLongOpt("chunk")
+                .withDescription("bytes counted at a time by a task, in KB").create("k");
+        Option histogram = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("histogram")
+                .withDescription("count with the sub-table histogram kernel").create("g");
+        Option sample = OptionBuilder.isRequired(false).hasArg().withArgName("percent")
+                .withType(Double.class).withLongOpt("sample")
+                .withDescription("estimate the table from -s percent of the input").create("s");
+        Option pipeline = OptionBuilder.isRequired(false).hasArg().withArgName("buffers")
+                .withType(Integer.class).withLongOpt("pipeline")
+                .withDescription("pipeline reading, coding and writing with -w buffers")
+                .create("w");
+        Option streams = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("streams")
+                .withDescription("code every block in 4 interleaved streams").create("r");
+        Option context = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("context")
+                .withDescription("code every byte with a table of the byte before").create("x");
+        Option codebook = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("codebook").withDescription("code with a pre-trained codebook")
+                .create("d");
         Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
                 .withDescription("indicate only progress").create("q");
 
@@ -206,6 +734,18 @@ public class ParHuffCompressor extends ParCompressor {
         options.addOption(fin);
         options.addOption(fout);
         options.addOption(tasks);
+        options.addOption(nio);
+        options.addOption(cache);
+        options.addOption(limit);
+        options.addOption(blockTables);
+        options.addOption(effort);
+        options.addOption(chunk);
+        options.addOption(histogram);
+        options.addOption(sample);
+        options.addOption(pipeline);
+        options.addOption(streams);
+        options.addOption(context);
+        options.addOption(codebook);
         options.addOption(quiet);
         CommandLineParser parser = new BasicParser();
         ParHuffCompressor compr = new ParHuffCompressor();
@@ -218,6 +758,25 @@ public class ParHuffCompressor extends ParCompressor {
             String out = cmd.getOptionValue("o");
             out = out == null ? in + ".hfm" : out;
             compr.setTasks(t == null ? 1 : Integer.parseInt(t));
+            compr.setMapped(cmd.hasOption("n"));
+            String c = cmd.getOptionValue("c");
+            compr.setCache(c == null ? 0 : Long.parseLong(c) * 1024 * 1024);
+            String l = cmd.getOptionValue("l");
+            compr.setMaxBits(l == null ? MAX_BITS : Integer.parseInt(l));
+            compr.setBlockTables(cmd.hasOption("b"));
+            String k = cmd.getOptionValue("k");
+            compr.setChunk(k == null ? Counter.CHUNK : Integer.parseInt(k) * 1024);
+            compr.setHistogram(cmd.hasOption("g"));
+            String s = cmd.getOptionValue("s");
+            compr.setSample(s == null ? 1 : Double.parseDouble(s) / 100);
+            String w = cmd.getOptionValue("w");
+            compr.setPipeline(w == null ? 0 : Integer.parseInt(w));
+            compr.setStreams(cmd.hasOption("r") ? Interleaver.STREAMS : 1);
+            compr.setContext(cmd.hasOption("x"));
+            String d = cmd.getOptionValue("d");
+            compr.setCodebook(d == null ? null : Codebook.load(d));
+            String e = cmd.getOptionValue("e");
+            compr.setEffort(e == null ? 0 : Integer.parseInt(e));
             compr.compress(in, out);
         } catch (Exception ex) {
             HelpFormatter help = new HelpFormatter();
@@ -0,0 +1,292 @@
+package compr.par.huff;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the input into blocks coded with their own tables so that the total
+ * size is as small as possible. The input is cut into small granules whose
+ * histograms are counted in parallel, and neighbouring granules are merged
+ * into a block while the cost of the merged block, estimated from its code
+ * lengths and its table, is not more than the cost of keeping them apart.
+ * <P>
+ * The effort level chooses the granule size and the search: levels 1 and 2
+ * merge greedily granules of 1 MB and 256 KB, level 3 finds the optimal
+ * partition of granules of 64 KB. Blocks are never longer than
+ * <code>MAX_SEGMENT</code>.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class Partitioner {
+
+    public static final int MAX_EFFORT = 3;
+    public static final int MAX_SEGMENT = 8 * 1024 * 1024; // 8 MB
+    private static final int MAX_GRANULES = 16 * 1024;
+    private static final int INDEX_BITS = Long.SIZE + Integer.SIZE; // per block
+    private final File fin;
+    private final long length;
+    private final int granule, effort, maxBits;
+    private final int[][] hist; // per granule
+    private final CodeBuilder builder = new CodeBuilder();
+    private final byte[] bitTable = new byte[ByteSym.RANGE];
+
+    /**
+     * @param fin is the input file
+     * @param effort is the effort level (1-<code>MAX_EFFORT</code>)
+     * @param maxBits is the longest code length
+     */
+    public Partitioner(File fin, int effort, int maxBits) {
+        if (effort < 1 || effort > MAX_EFFORT) {
+            throw new IllegalArgumentException("Effort level out of range: " + effort);
+        }
+
+        int granule = ParHuffCompressor.BLOCK >> 2 * (effort - 1);
+        this.length = fin.length();
+        while ((length + granule - 1) / granule > MAX_GRANULES) {
+            granule *= 2;
+        }
+
+        this.fin = fin;
+        this.granule = Math.min(granule, MAX_SEGMENT);
+        this.effort = effort;
+        this.maxBits = maxBits;
+        hist = new int[(int) ((length + this.granule - 1) / this.granule)][];
+    }
+
+    /**
+     * Counts the histograms of the granules with <code>tasks</code> tasks.
+     *
+     * @param exec is the executor running the tasks
+     * @param tasks is the number of tasks
+     * @param mapped tells whether to map the input instead of reading it
+     * @throws ExecutionException if the input cannot be read
+     */
+    public void count(ExecutorService exec, int tasks, boolean mapped)
+            throws InterruptedException, ExecutionException {
+        count(exec, tasks, mapped, false);
+    }
+
+    /**
+     * @param histogram tells whether to count with <code>Histogram</code>
+     * instead of the plain loop
+     */
+    public void count(ExecutorService exec, int tasks, boolean mapped, boolean histogram)
+            throws InterruptedException, ExecutionException {
+        AtomicInteger next = new AtomicInteger();
+        Collection<GranuleCounter> counters = new ArrayList<GranuleCounter>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            counters.add(new GranuleCounter(next, mapped, histogram));
+        }
+
+        for (Future<Void> counter : exec.invokeAll(counters)) {
+            counter.get();
+        }
+    }
+
+    /**
+     * @return the offsets of the blocks in the input followed by its length
+     */
+    public long[] partition() {
+        int n = hist.length;
+        int[] start = effort < MAX_EFFORT ? greedy() : optimal();
+        int count = 0;
+        for (int g = n; g > 0; g = start[g - 1]) {
+            count++;
+        }
+
+        long[] bounds = new long[count + 1];
+        bounds[count] = length;
+        for (int g = n, b = count; g > 0; g = start[g - 1]) {
+            bounds[--b] = (long) start[g - 1] * granule;
+        }
+
+        return bounds;
+    }
+
+    /**
+     * @param off is the offset of a block returned by <code>partition</code>
+     * @param len is the length of the block
+     * @return the byte frequencies of the block
+     */
+    public long[] freqTable(long off, long len) {
+        long[] freq = new long[ByteSym.RANGE];
+        for (int g = (int) (off / granule); g < (off + len + granule - 1) / granule; g++) {
+            add(freq, hist[g]);
+        }
+
+        return freq;
+    }
+
+    /**
+     * Merges each granule into the block before it if that costs no more.
+     *
+     * @return for each granule, the first granule of its block
+     */
+    private int[] greedy() {
+        int[] start = new int[hist.length];
+        long[] cur = new long[ByteSym.RANGE], next = new long[ByteSym.RANGE];
+        long curCost = 0;
+        for (int g = 0, first = 0; g < hist.length; g++) {
+            clear(next);
+            add(next, hist[g]);
+            long nextCost = cost(next);
+            if (g > first && (long) (g - first + 1) * granule <= MAX_SEGMENT) {
+                add(next, cur);
+                long merged = cost(next);
+                if (merged <= curCost + nextCost) {
+                    long[] swap = cur;
+                    cur = next;
+                    next = swap;
+                    curCost = merged;
+                    start[g] = first;
+                    continue;
+                }
+
+                clear(next);
+                add(next, hist[g]);
+            }
+
+            long[] swap = cur;
+            cur = next;
+            next = swap;
+            curCost = nextCost;
+            first = g;
+            start[g] = first;
+        }
+
+        return start;
+    }
+
+    /**
+     * Finds the partition of least total cost by dynamic programming over the
+     * end of the last block.
+     *
+     * @return for each granule, the first granule of its block when it ends
+     * a block
+     */
+    private int[] optimal() {
+        int n = hist.length, window = MAX_SEGMENT / granule;
+        int[] start = new int[n];
+        long[] best = new long[n + 1];
+        long[] freq = new long[ByteSym.RANGE];
+        for (int end = 1; end <= n; end++) {
+            clear(freq);
+            best[end] = Long.MAX_VALUE;
+            for (int first = end - 1; first >= 0 && first >= end - window; first--) {
+                add(freq, hist[first]);
+                long total = best[first] + cost(freq);
+                if (total < best[end]) {
+                    best[end] = total;
+                    start[end - 1] = first;
+                }
+            }
+        }
+
+        return start;
+    }
+
+    /**
+     * @return the estimated size in bits of a block with these frequencies,
+     * including its table and its index entry
+     */
+    private long cost(long[] freq) {
+        int n = builder.makeBitTable(freq, maxBits, bitTable);
+        long bits = INDEX_BITS + ByteSym.RANGE + 5L * n;
+        for (int sym = 0; sym < ByteSym.EoF; sym++) {
+            bits += freq[sym] * bitTable[sym];
+        }
+
+        return bits;
+    }
+
+    private static void add(long[] freq, int[] hist) {
+        for (int sym = 0; sym < ByteSym.EoF; sym++) {
+            freq[sym] += hist[sym];
+        }
+    }
+
+    private static void add(long[] freq, long[] other) {
+        for (int sym = 0; sym < ByteSym.EoF; sym++) {
+            freq[sym] += other[sym];
+        }
+    }
+
+    private static void clear(long[] freq) {
+        for (int sym = 0; sym < ByteSym.RANGE; sym++) {
+            freq[sym] = 0;
+        }
+    }
+
+    /**
+     * Counts granules claimed from a shared cursor until none is left.
+     */
+    private class GranuleCounter implements Callable<Void> {
+
+        private final AtomicInteger next; // index of the next granule to claim
+        private final boolean mapped;
+        private final Histogram kernel; // null for the plain loop
+
+        GranuleCounter(AtomicInteger next, boolean mapped, boolean histogram) {
+            this.next = next;
+            this.mapped = mapped;
+            kernel = histogram ? new Histogram() : null;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            FileChannel in = new FileInputStream(fin).getChannel();
+            try {
+                ByteBuffer buf = mapped ? null : ByteBuffer.allocate(granule);
+                long[] freq = new long[ByteSym.RANGE];
+                for (int g = next.getAndIncrement(); g < hist.length;
+                        g = next.getAndIncrement()) {
+                    long off = (long) g * granule;
+                    int len = (int) Math.min(length - off, granule);
+                    ByteBuffer src;
+                    if (mapped) {
+                        src = in.map(FileChannel.MapMode.READ_ONLY, off, len);
+                    } else {
+                        buf.clear();
+                        buf.limit(len);
+                        while (buf.hasRemaining()) {
+                            if (in.read(buf, off + buf.position()) < 0) {
+                                throw new IOException("Unexpected end of " + fin.getName());
+                            }
+                        }
+
+                        buf.flip();
+                        src = buf;
+                    }
+
+                    clear(freq);
+                    if (kernel != null) {
+                        kernel.count(src, freq);
+                    } else {
+                        Counter.count(src, freq);
+                    }
+
+                    int[] row = new int[ByteSym.EoF];
+                    for (int sym = 0; sym < ByteSym.EoF; sym++) {
+                        row[sym] = (int) freq[sym];
+                    }
+
+                    hist[g] = row;
+                }
+            } finally {
+                in.close();
+            }
+
+            return null;
+        }
+    }
+}
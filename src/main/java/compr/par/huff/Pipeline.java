@@ -0,0 +1,181 @@
+package compr.par.huff;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a job in three stages connected by bounded queues: a reader thread
+ * fills slots with the items of the input in order, the tasks of an executor
+ * process them concurrently, and the calling thread writes them in order and
+ * gives them back to the reader. At most <code>buffers</code> slots are ever
+ * created and they are recycled, so the memory of the job is bounded by the
+ * number of buffers times the size of a slot, and a slow stage holds back the
+ * others instead of letting the queues grow.
+ * <P>
+ * The reader has a thread of its own, so that a pool of a single thread can
+ * still process the slots.
+ *
+ * @param <T> is the type of the slots
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public abstract class Pipeline<T> {
+
+    private static final long POLL = 100; // ms between checks of the reader
+    private final ExecutorService exec;
+    private final int buffers;
+
+    /**
+     * @param exec is the executor processing the slots
+     * @param buffers is the largest number of slots (at least 1)
+     */
+    protected Pipeline(ExecutorService exec, int buffers) {
+        if (buffers < 1) {
+            throw new IllegalArgumentException("Number of buffers must be positive: " + buffers);
+        }
+
+        this.exec = exec;
+        this.buffers = buffers;
+    }
+
+    public int getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return a new empty slot
+     */
+    protected abstract T newSlot();
+
+    /**
+     * Fills a slot with an item of the input, in the reader thread. Items are
+     * read in order.
+     *
+     * @param slot is a new or a recycled slot
+     * @param item is the index of the item
+     * @throws IOException
+     */
+    protected abstract void read(T slot, int item) throws IOException;
+
+    /**
+     * Processes a filled slot, in a task of the executor.
+     *
+     * @param slot is a slot filled by <code>read</code>
+     * @throws IOException
+     */
+    protected abstract void process(T slot) throws IOException;
+
+    /**
+     * Writes a processed slot, in the calling thread. Slots are written in
+     * the order of their items.
+     *
+     * @param slot is a slot processed by <code>process</code>
+     * @param item is the index of its item
+     * @throws IOException
+     */
+    protected abstract void write(T slot, int item) throws IOException;
+
+    /**
+     * Reads, processes and writes <code>items</code> items and returns when
+     * the last one is written, or when a stage fails.
+     *
+     * @param items is the number of items
+     * @throws ExecutionException if a slot cannot be read or processed
+     */
+    public void run(final int items)
+            throws IOException, InterruptedException, ExecutionException {
+        final BlockingQueue<T> free = new ArrayBlockingQueue<T>(buffers);
+        final BlockingQueue<Future<T>> pending = new ArrayBlockingQueue<Future<T>>(buffers);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int created = 0;
+                try {
+                    for (int i = 0; i < items; i++) {
+                        T slot = free.poll();
+                        if (slot == null && created < buffers) {
+                            slot = newSlot();
+                            created++;
+                        } else if (slot == null) {
+                            slot = free.take();
+                        }
+
+                        read(slot, i);
+                        pending.put(exec.submit(new Stage(slot)));
+                    }
+                } catch (InterruptedException ex) {
+                    // the writer gave up
+                } catch (final Throwable ex) {
+                    // at most buffers - 1 futures are pending while a slot is read
+                    FutureTask<T> failed = new FutureTask<T>(new Callable<T>() {
+                        @Override
+                        public T call() throws Exception {
+                            if (ex instanceof Error) {
+                                throw (Error) ex;
+                            }
+
+                            throw (Exception) ex;
+                        }
+                    });
+                    failed.run();
+                    pending.offer(failed);
+                }
+            }
+        }, "pipeline-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            for (int i = 0; i < items; i++) {
+                T slot = take(pending, reader).get();
+                write(slot, i);
+                free.put(slot);
+            }
+        } finally {
+            reader.interrupt();
+            reader.join();
+            for (Future<T> stage : pending) {
+                stage.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Takes the next future, or fails if the reader died without leaving one,
+     * as when it could not even report its own failure.
+     */
+    private Future<T> take(BlockingQueue<Future<T>> pending, Thread reader)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            boolean alive = reader.isAlive();
+            Future<T> stage = pending.poll(POLL, TimeUnit.MILLISECONDS);
+            if (stage != null) {
+                return stage;
+            } else if (!alive) {
+                throw new ExecutionException(new IllegalStateException(
+                        "Pipeline reader stopped early"));
+            }
+        }
+    }
+
+    private class Stage implements Callable<T> {
+
+        private final T slot;
+
+        Stage(T slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public T call() throws IOException {
+            process(slot);
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package compr.par.huff;
+
+import io.bitstream.BitReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Decodes a file of the legacy single-stream format in parallel, although it
+ * has no block index. The codes are cut into segments of
+ * <code>SEGMENT</code> bytes and every segment is decoded from its first bit,
+ * which is most likely not the start of a code. Since Huffman codes
+ * resynchronise quickly, such a decoding soon reaches a code boundary of the
+ * true decoding and is correct from there on.
+ * <P>
+ * The tasks mark the bit position of every symbol they decode. The segments
+ * are then stitched in order: the true decoding enters a segment at a known
+ * position, and if that position is marked the output of the segment is
+ * taken from it. Otherwise the symbols are decoded one at a time until a
+ * marked position is reached, or to the end of the segment if it never
+ * synchronises, so the output is always that of a serial decoding.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class SpeculativeDecoder extends Pipeline<SpeculativeDecoder.Segment> {
+
+    public static final int SEGMENT = 1024 * 1024; // 1 MB
+    private static final int AHEAD = Long.SIZE / Byte.SIZE; // bytes after a segment
+    private final File fin;
+    private final FileChannel in;
+    private final long data, length; // offset of the codes and length of the file
+    private final DecodeTable table;
+    private final OutputStream out;
+    private long pos;       // bit position of the true decoding in the codes
+    private boolean done;   // EoF reached
+    private int synced;     // segments synchronised at their entry
+    private long serial;    // symbols decoded serially
+
+    /**
+     * @param exec is the executor decoding the segments
+     * @param buffers is the largest number of segments in memory
+     * @param fin is the input file
+     * @param in is a channel of the input file
+     * @param data is the offset of the codes in the input file
+     * @param table is the decode table of the file
+     * @param out is the stream the decoded bytes are written to
+     */
+    public SpeculativeDecoder(ExecutorService exec, int buffers, File fin, FileChannel in,
+            long data, DecodeTable table, OutputStream out) {
+        super(exec, buffers);
+        this.fin = fin;
+        this.in = in;
+        this.data = data;
+        this.length = fin.length();
+        this.table = table;
+        this.out = out;
+    }
+
+    /**
+     * Decodes the whole file.
+     *
+     * @throws IOException if the file is corrupt
+     * @throws ExecutionException if a segment cannot be read
+     */
+    public void decode() throws IOException, InterruptedException, ExecutionException {
+        run(getSegments());
+        if (!done) {
+            throw new IOException("Unexpected end of file " + fin.getName());
+        }
+    }
+
+    public int getSegments() {
+        return (int) ((length - data + SEGMENT - 1) / SEGMENT);
+    }
+
+    /**
+     * @return the number of segments whose speculative decoding was in sync
+     * where the true decoding entered them
+     */
+    public int getSynced() {
+        return synced;
+    }
+
+    /**
+     * @return the number of symbols decoded serially to synchronise
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+    @Override
+    protected Segment newSlot() {
+        return new Segment();
+    }
+
+    @Override
+    protected void read(Segment seg, int item) throws IOException {
+        long off = data + (long) item * SEGMENT;
+        seg.start = (long) item * SEGMENT * Byte.SIZE;
+        seg.len = (int) Math.min(length - off, SEGMENT);
+        int size = (int) Math.min(length - off, SEGMENT + AHEAD);
+        ByteBuffer buf = ByteBuffer.wrap(seg.src, 0, size);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, off + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file " + fin.getName());
+            }
+        }
+
+        seg.size = size;
+    }
+
+    /**
+     * Decodes the segment from its first bit, marking the position of every
+     * symbol, until a symbol starts past its end.
+     */
+    @Override
+    protected void process(Segment seg) {
+        long[] marks = seg.marks;
+        for (int w = 0; w < marks.length; w++) {
+            marks[w] = 0;
+        }
+
+        BitReader bits = new BitReader(seg.src, 0, seg.size);
+        long end = (long) seg.len * Byte.SIZE, p;
+        int n = 0;
+        seg.eof = seg.invalid = false;
+        while ((p = bits.position()) < end) {
+            marks[(int) (p >>> 6)] |= 1L << p;
+            int sym;
+            try {
+                sym = table.decode(bits);
+            } catch (IllegalStateException ex) {
+                seg.invalid = true;
+                break;
+            }
+
+            if (sym == ByteSym.EoF) {
+                seg.eof = true;
+                break;
+            } else if (n == seg.dst.length) {
+                byte[] dst = new byte[2 * n];
+                System.arraycopy(seg.dst, 0, dst, 0, n);
+                seg.dst = dst;
+            }
+
+            seg.dst[n++] = (byte) sym;
+        }
+
+        seg.count = n;
+        seg.end = bits.position();
+    }
+
+    /**
+     * Continues the true decoding through the segment.
+     */
+    @Override
+    protected void write(Segment seg, int item) throws IOException {
+        long end = (long) seg.len * Byte.SIZE;
+        long p = pos - seg.start;
+        if (done || p >= end) {
+            return;
+        }
+
+        BitReader bits = null;
+        long start = p;
+        while (!seg.isMarked(p)) {
+            if (bits == null) {
+                bits = new BitReader(seg.src, 0, seg.size);
+                bits.skip(p);
+            }
+
+            int sym;
+            try {
+                sym = table.decode(bits);
+            } catch (IllegalStateException ex) {
+                throw new IOException("Invalid Huffman code in " + fin.getName());
+            }
+
+            serial++;
+            if (sym == ByteSym.EoF) {
+                done = true;
+                return;
+            }
+
+            out.write(sym);
+            p = bits.position();
+            if (p >= end) {
+                pos = seg.start + p;
+                return;
+            }
+        }
+
+        if (p == start) {
+            synced++;
+        }
+
+        out.write(seg.dst, seg.index(p), seg.count - seg.index(p));
+        if (seg.invalid) {
+            throw new IOException("Invalid Huffman code in " + fin.getName());
+        }
+
+        done = seg.eof;
+        pos = seg.start + seg.end;
+    }
+
+    /**
+     * A segment of the codes with its speculative decoding.
+     */
+    static class Segment {
+
+        private final byte[] src = new byte[SEGMENT + AHEAD];
+        private final long[] marks = new long[SEGMENT * Byte.SIZE / Long.SIZE];
+        private byte[] dst = new byte[SEGMENT];
+        private long start;  // bit position in the codes
+        private int len, size; // bytes in the segment and read with those after it
+        private int count;   // symbols decoded
+        private long end;    // bit position after the last symbol
+        private boolean eof, invalid; // how the decoding stopped early
+
+        /**
+         * @param p is a bit position in the segment
+         * @return true if a decoded symbol starts at <code>p</code>
+         */
+        boolean isMarked(long p) {
+            return (marks[(int) (p >>> 6)] & 1L << p) != 0;
+        }
+
+        /**
+         * @param p is a marked bit position
+         * @return the index of the symbol decoded at <code>p</code>
+         */
+        int index(long p) {
+            int w = (int) (p >>> 6), n = 0;
+            for (int i = 0; i < w; i++) {
+                n += Long.bitCount(marks[i]);
+            }
+
+            return n + Long.bitCount(marks[w] & ((1L << p) - 1));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package compr.seq.huff;
+
+import compr.seq.Compressor;
+import io.bitstream.BitWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.MessageFormat;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import test.TimeLogger;
+
+/**
+ * Compresses a stream in a single pass with adaptive Huffman coding, so that
+ * the input does not have to be known in advance: pipes, sockets and growing
+ * files can be compressed as they are read. The output is the magic followed
+ * by the codes of the symbols and EoF.
+ * <P>
+ * An instance reuses its tree and buffers for every stream, so it must not be
+ * used concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AdaptiveHuffCompressor implements Compressor {
+
+    public static final int BUF = 64 * 1024; // 64 KB
+    public static final byte[] MAGIC = {(byte) 0x89, 'A', 'H', 'F'};
+    private static final TimeLogger logger = TimeLogger.getLogger();
+    private final AdaptiveHuffTree tree = new AdaptiveHuffTree();
+    private final byte[] buf = new byte[BUF];
+    private final BitWriter bits = new BitWriter(BUF);
+
+    @Override
+    public void compress(File fin, File fout) throws IOException {
+        logger.resetTime();
+        logger.log("Starting adaptive compression of file " + fin.getName());
+        InputStream in = new FileInputStream(fin);
+        try {
+            OutputStream out = new FileOutputStream(fout);
+            try {
+                compress(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        long ratio = Math.round((double) fout.length() / fin.length() * 100);
+        logger.log(MessageFormat.format("Compression completed to file {0} with ratio {1}%",
+                fout.getName(), ratio));
+    }
+
+    @Override
+    public void compress(String fin, String fout) throws IOException {
+        compress(new File(fin), new File(fout));
+    }
+
+    /**
+     * Compresses <code>in</code> until its end into <code>out</code>. Neither
+     * stream is closed.
+     *
+     * @param in is the stream to compress
+     * @param out is the stream the compressed bytes are written to
+     * @throws IOException
+     */
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        tree.reset();
+        bits.reset();
+        out.write(MAGIC);
+        for (int l; (l = in.read(buf)) >= 0;) {
+            for (int i = 0; i < l; i++) {
+                tree.encode(buf[i] & 0xff, bits);
+            }
+
+            bits.drain(out);
+        }
+
+        tree.encode(AdaptiveHuffTree.EoF, bits);
+        bits.flush();
+        bits.drain(out);
+        out.flush();
+    }
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("input").withDescription("input file, - for stdin (*required)")
+                .create("i");
+        Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("output").withDescription("output file, - for stdout").create("o");
+        Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
+                .withDescription("indicate only progress").create("q");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(fout);
+        options.addOption(quiet);
+        CommandLineParser parser = new BasicParser();
+        AdaptiveHuffCompressor compr = new AdaptiveHuffCompressor();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            logger.setQuiet(cmd.hasOption("q"));
+            String in = cmd.getOptionValue("i");
+            String out = cmd.getOptionValue("o");
+            if ("-".equals(in) || "-".equals(out)) {
+                // streams are not logged, stdout may carry the output
+                InputStream is = "-".equals(in) ? System.in : new FileInputStream(in);
+                try {
+                    OutputStream os = out == null || "-".equals(out)
+                            ? System.out : new FileOutputStream(out);
+                    try {
+                        compr.compress(is, os);
+                    } finally {
+                        os.close();
+                    }
+                } finally {
+                    is.close();
+                }
+            } else {
+                compr.compress(in, out == null ? in + ".ahf" : out);
+            }
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            PrintWriter err = new PrintWriter(System.err);
+            help.printHelp(err, help.getWidth(), "java AdaptiveHuffCompressor", "options:", options,
+                    help.getLeftPadding(), help.getDescPadding(),
+                    "\nCompress the input file or stream to the output file\n"
+                    + "in a single pass using adaptive Huffman coding.\n");
+            err.flush();
+        }
+    }
+}
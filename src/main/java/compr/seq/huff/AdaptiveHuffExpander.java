@@ -0,0 +1,187 @@
+package compr.seq.huff;
+
+import compr.seq.Expander;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import test.TimeLogger;
+
+/**
+ * Expands a stream compressed by <code>AdaptiveHuffCompressor</code> in a
+ * single pass, updating the same tree as the compressor after every symbol.
+ * <P>
+ * An instance reuses its tree and buffers for every stream, so it must not be
+ * used concurrently.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AdaptiveHuffExpander implements Expander {
+
+    public static final int BUF = 64 * 1024; // 64 KB
+    private static final TimeLogger logger = TimeLogger.getLogger();
+    private final AdaptiveHuffTree tree = new AdaptiveHuffTree();
+    private final byte[] src = new byte[BUF], dst = new byte[BUF];
+    private InputStream in;
+    private int pos, len; // next byte and end of src
+    private int buf, bits; // current byte and its bits left
+
+    @Override
+    public void expand(File fin, File fout) throws IOException {
+        logger.resetTime();
+        logger.log("Starting adaptive extraction of file " + fin.getName());
+        InputStream in = new FileInputStream(fin);
+        try {
+            OutputStream out = new FileOutputStream(fout);
+            try {
+                expand(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        logger.log("Extraction completed to file " + fout.getName());
+    }
+
+    @Override
+    public void expand(String fin, String fout) throws IOException {
+        expand(new File(fin), new File(fout));
+    }
+
+    /**
+     * Expands <code>in</code> up to the coded EoF into <code>out</code>.
+     * Neither stream is closed.
+     *
+     * @param in is the stream to expand
+     * @param out is the stream the expanded bytes are written to
+     * @throws IOException if the stream is not adaptive Huffman coded or ends
+     * before EoF
+     */
+    public void expand(InputStream in, OutputStream out) throws IOException {
+        this.in = in;
+        pos = len = bits = 0;
+        for (int i = 0; i < AdaptiveHuffCompressor.MAGIC.length; i++) {
+            if (readBits(Byte.SIZE) != (AdaptiveHuffCompressor.MAGIC[i] & 0xff)) {
+                throw new IOException("Not an adaptive Huffman coded stream");
+            }
+        }
+
+        tree.reset();
+        AdaptiveHuffTree tree = this.tree;
+        byte[] dst = this.dst;
+        int n = 0;
+        while (true) {
+            int p = 0, sym;
+            while ((sym = tree.symbol(p)) < 0) {
+                p = tree.child(p, readBit());
+            }
+
+            if (tree.isNew(sym)) {
+                sym = readBits(AdaptiveHuffTree.SYM_BITS);
+            }
+
+            if (sym == AdaptiveHuffTree.EoF) {
+                break;
+            }
+
+            tree.update(sym);
+            dst[n++] = (byte) sym;
+            if (n == dst.length) {
+                out.write(dst, 0, n);
+                n = 0;
+            }
+        }
+
+        out.write(dst, 0, n);
+        out.flush();
+        this.in = null;
+    }
+
+    private int readBit() throws IOException {
+        if (bits == 0) {
+            if (pos == len) {
+                len = in.read(src);
+                pos = 0;
+                if (len < 0) {
+                    len = 0;
+                    throw new IOException("Unexpected EoF in adaptive Huffman coded stream");
+                }
+            }
+
+            buf = src[pos++];
+            bits = Byte.SIZE;
+        }
+
+        return buf >>> --bits & 1;
+    }
+
+    private int readBits(int cnt) throws IOException {
+        int val = 0;
+        for (int i = 0; i < cnt; i++) {
+            val = val << 1 | readBit();
+        }
+
+        return val;
+    }
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("input").withDescription("input file, - for stdin (*required)")
+                .create("i");
+        Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("output").withDescription("output file, - for stdout").create("o");
+        Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
+                .withDescription("indicate only progress").create("q");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(fout);
+        options.addOption(quiet);
+        CommandLineParser parser = new BasicParser();
+        AdaptiveHuffExpander extr = new AdaptiveHuffExpander();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            logger.setQuiet(cmd.hasOption("q"));
+            String in = cmd.getOptionValue("i");
+            String out = cmd.getOptionValue("o");
+            if ("-".equals(in) || "-".equals(out)) {
+                // streams are not logged, stdout may carry the output
+                InputStream is = "-".equals(in) ? System.in : new FileInputStream(in);
+                try {
+                    OutputStream os = out == null || "-".equals(out)
+                            ? System.out : new FileOutputStream(out);
+                    try {
+                        extr.expand(is, os);
+                    } finally {
+                        os.close();
+                    }
+                } finally {
+                    is.close();
+                }
+            } else {
+                extr.expand(in, out == null ? in + ".out" : out);
+            }
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            PrintWriter err = new PrintWriter(System.err);
+            help.printHelp(err, help.getWidth(), "java AdaptiveHuffExpander", "options:", options,
+                    help.getLeftPadding(), help.getDescPadding(),
+                    "\nExtract the adaptive Huffman coded input file or stream\n"
+                    + "to the output file.\n");
+            err.flush();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package compr.seq.huff;
+
+import io.bitstream.BitWriter;
+
+/**
+ * Adaptive Huffman tree of the FGK algorithm, shared by the compressor and
+ * the expander so that both see the same code for every symbol. Symbols are
+ * the 256 byte values and EoF; a symbol seen for the first time is sent as
+ * the code of the NYT (not yet transmitted) leaf followed by its value in 9
+ * bits.
+ * <P>
+ * The nodes are kept in arrays in the order of the sibling property: weights
+ * do not increase with the index, the root is at index 0 and siblings are
+ * adjacent. After a symbol is coded each node on its path is swapped with the
+ * first node of the same weight before its weight is incremented, which keeps
+ * the order. Nothing is allocated after construction, so the memory is
+ * constant for any length of input.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class AdaptiveHuffTree {
+
+    public static final int EoF = 256;
+    public static final int SYM_BITS = 9;    // bits of a new symbol
+    private static final int NYT = EoF + 1;  // symbol of the NYT leaf
+    private static final int NODES = 2 * (NYT + 1) - 1;
+    private final long[] weight = new long[NODES];
+    private final int[] parent = new int[NODES];
+    private final int[] node = new int[NODES]; // left child, or ~symbol of a leaf
+    private final int[] leaf = new int[NYT + 1]; // index of each leaf, -1 if not seen
+    private final int[] path = new int[NODES / Integer.SIZE + 1]; // code bits, leaf first
+    private int size;
+
+    public AdaptiveHuffTree() {
+        reset();
+    }
+
+    /**
+     * Starts over with a tree of the NYT leaf only.
+     */
+    public final void reset() {
+        for (int sym = 0; sym < leaf.length; sym++) {
+            leaf[sym] = -1;
+        }
+
+        weight[0] = 0;
+        parent[0] = -1;
+        node[0] = ~NYT;
+        leaf[NYT] = 0;
+        size = 1;
+    }
+
+    /**
+     * Writes the code of <code>sym</code> and updates the tree.
+     *
+     * @param sym is the symbol to encode (0-256)
+     * @param out is the writer of the code
+     */
+    public void encode(int sym, BitWriter out) {
+        int p = leaf[sym];
+        if (p < 0) {
+            writePath(leaf[NYT], out);
+            out.write(SYM_BITS, sym);
+        } else {
+            writePath(p, out);
+        }
+
+        update(sym);
+    }
+
+    /**
+     * Walks one edge down from an internal node.
+     *
+     * @param p is the index of an internal node
+     * @param bit is the next bit of the code
+     * @return the index of the child
+     */
+    public int child(int p, int bit) {
+        return node[p] + bit;
+    }
+
+    /**
+     * @param p is the index of a node
+     * @return the symbol of a leaf, <code>NYT</code> for the NYT leaf, or -1
+     * for an internal node
+     */
+    public int symbol(int p) {
+        return node[p] < 0 ? ~node[p] : -1;
+    }
+
+    /**
+     * @param sym is a symbol returned by <code>symbol</code>
+     * @return true if it is the NYT leaf, so the symbol follows in 9 bits
+     */
+    public boolean isNew(int sym) {
+        return sym == NYT;
+    }
+
+    /**
+     * Increments the weight of <code>sym</code>, adding it to the tree if it
+     * is new.
+     *
+     * @param sym is the symbol just coded (0-256)
+     */
+    public void update(int sym) {
+        int q = leaf[sym];
+        if (q < 0) {
+            // the NYT leaf becomes the parent of the new leaf and the NYT leaf
+            int z = leaf[NYT];
+            node[z] = size;
+            weight[size] = weight[size + 1] = 0;
+            parent[size] = parent[size + 1] = z;
+            node[size] = ~sym;
+            node[size + 1] = ~NYT;
+            leaf[sym] = size;
+            leaf[NYT] = size + 1;
+            size += 2;
+            q = leaf[sym];
+        }
+
+        long[] weight = this.weight;
+        for (; q >= 0; q = parent[q]) {
+            long w = weight[q];
+            int j = q;
+            while (j > 0 && weight[j - 1] == w) {
+                j--;
+            }
+
+            if (j != q && j != parent[q]) {
+                swap(q, j);
+                q = j;
+            }
+
+            weight[q] = w + 1;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int n = node[i];
+        node[i] = node[j];
+        node[j] = n;
+        link(i);
+        link(j);
+    }
+
+    private void link(int p) {
+        int n = node[p];
+        if (n < 0) {
+            leaf[~n] = p;
+        } else {
+            parent[n] = p;
+            parent[n + 1] = p;
+        }
+    }
+
+    /**
+     * Writes the code of the node at <code>p</code>, root first. The bits are
+     * gathered leaf first into words, which are then written in reverse.
+     */
+    private void writePath(int p, BitWriter out) {
+        int words = 0, bits = 0, word = 0;
+        for (; p > 0; p = parent[p]) {
+            word |= (p - node[parent[p]]) << bits;
+            if (++bits == Integer.SIZE) {
+                path[words++] = word;
+                word = 0;
+                bits = 0;
+            }
+        }
+
+        if (bits > 0) {
+            out.write(bits, word);
+        }
+
+        while (words > 0) {
+            out.write(Integer.SIZE, path[--words]);
+        }
+    }
+}
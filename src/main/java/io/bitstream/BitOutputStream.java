@@ -104,4 +104,35 @@ public class BitOutputStream extends OutputStream {
             bits -= cnt;
         }
     }
+
+    /**
+     * write the first <code>cnt</code> bits of a byte array, as produced by
+     * another bit stream, without realigning it bit-at-a-time
+     *
+     * @param src holds the bits to write, leftmost bits first
+     * @param cnt is number of bits to write from <code>src</code>
+     * @throws java.io.IOException
+     */
+    public void write(byte[] src, long cnt) throws IOException {
+        int full = (int) (cnt / Byte.SIZE), rest = (int) (cnt % Byte.SIZE);
+        if (bits == Byte.SIZE) {
+            out.write(src, 0, full);
+        } else {
+            byte[] dst = new byte[Math.min(full, 8 * 1024)];
+            for (int off = 0; off < full; off += dst.length) {
+                int l = Math.min(full - off, dst.length);
+                for (int i = 0; i < l; i++) {
+                    int b = src[off + i] & 0xff;
+                    dst[i] = (byte) ((buf << bits) | (b >> (Byte.SIZE - bits)));
+                    buf = b & bitMask[Byte.SIZE - bits];
+                }
+
+                out.write(dst, 0, l);
+            }
+        }
+
+        if (rest > 0) {
+            write(rest, (src[full] & 0xff) >> (Byte.SIZE - rest));
+        }
+    }
 }
@@ -0,0 +1,146 @@
+package io.bitstream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads bits from a byte array or a byte buffer through a 64-bit buffer.
+ * Unlike <code>BitInputStream</code> the next bits can be looked at with
+ * <code>peek</code> before they are consumed, which is what table driven
+ * decoders need. The buffer is refilled a whole word at a time, and it can be
+ * backed by a mapped file region. Bits past the end read as zeros.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class BitReader {
+
+    private static final int WORD = Long.SIZE / Byte.SIZE;
+    private final ByteBuffer src;
+    private int off, end;
+    private int pos;  // next byte to load into the buffer
+    private long buf; // buffered bits, leftmost first
+    private int bits; // number of bits in buf
+
+    /**
+     * Construct a bit reader over <code>len</code> bytes of <code>src</code>
+     * starting at <code>off</code>.
+     *
+     * @param src is the array the bits are read from
+     * @param off is the index of the first byte
+     * @param len is the number of bytes
+     */
+    public BitReader(byte[] src, int off, int len) {
+        this(ByteBuffer.wrap(src), off, len);
+    }
+
+    /**
+     * Construct a bit reader over the remaining bytes of <code>src</code>.
+     * The position of <code>src</code> is not changed.
+     *
+     * @param src is the buffer the bits are read from
+     */
+    public BitReader(ByteBuffer src) {
+        this(src, src.position(), src.remaining());
+    }
+
+    private BitReader(ByteBuffer src, int off, int len) {
+        this.src = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.off = off;
+        this.end = off + len;
+        pos = off;
+    }
+
+    /**
+     * Starts over on another range of the same source, so that a reader can
+     * be reused without allocation.
+     *
+     * @param off is the index of the first byte
+     * @param len is the number of bytes
+     */
+    public void reset(int off, int len) {
+        this.off = off;
+        this.end = off + len;
+        pos = off;
+        buf = 0;
+        bits = 0;
+    }
+
+    /**
+     * Returns the next bits without consuming them.
+     *
+     * @param cnt is the number of bits to look at (1-32)
+     * @return the next <code>cnt</code> bits as rightmost bits
+     */
+    public int peek(int cnt) {
+        if (cnt > bits) {
+            refill();
+        }
+
+        return (int) (buf >>> (Long.SIZE - cnt));
+    }
+
+    /**
+     * Skips bits that have been looked at with <code>peek</code>.
+     *
+     * @param cnt is the number of bits to skip, at most the last peek
+     */
+    public void consume(int cnt) {
+        buf <<= cnt;
+        bits -= cnt;
+    }
+
+    /**
+     * @param cnt is the number of bits to read (1-32)
+     * @return the next <code>cnt</code> bits as rightmost bits
+     */
+    public int read(int cnt) {
+        int val = peek(cnt);
+        consume(cnt);
+        return val;
+    }
+
+    /**
+     * @param cnt is the number of bits to skip, possibly more than 32
+     */
+    public void skip(long cnt) {
+        for (; cnt > 32; cnt -= 32) {
+            read(32);
+        }
+
+        read((int) cnt);
+    }
+
+    /**
+     * @return the number of bits consumed since the start
+     */
+    public long position() {
+        return (long) (pos - off) * Byte.SIZE - bits;
+    }
+
+    /**
+     * @return the number of bits left before the end
+     */
+    public long available() {
+        return (long) (end - off) * Byte.SIZE - position();
+    }
+
+    /**
+     * Tops the buffer up to at least 57 bits. A whole word is loaded and as
+     * many whole bytes of it are kept as fit; the bits below them are the
+     * correct continuation, so the next load can overlap them.
+     */
+    private void refill() {
+        if (pos + WORD <= end) {
+            buf |= src.getLong(pos) >>> bits;
+            pos += (Long.SIZE - 1 - bits) >>> 3;
+            bits |= Long.SIZE - WORD;
+        } else {
+            while (bits <= Long.SIZE - Byte.SIZE) {
+                long b = pos < end ? src.get(pos) & 0xff : 0;
+                buf |= b << (Long.SIZE - Byte.SIZE - bits);
+                bits += Byte.SIZE;
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package io.bitstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes bits into a growing byte array through a 64-bit accumulator, which
+ * is flushed 32 bits at a time. Unlike <code>BitOutputStream</code> no
+ * virtual call is made per byte, and a whole array of symbols can be encoded
+ * with a single call to <code>encode</code>. Client programs must call
+ * <code>flush</code> before using the array, or the last bits are missing.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class BitWriter {
+
+    private static final int CHUNK = 4 * 1024; // symbols encoded between checks
+    private byte[] dst;
+    private int pos;  // next byte of dst
+    private long acc; // pending bits, rightmost are the last written
+    private int bits; // number of pending bits, less than 32
+    private long total; // bits written since the last reset
+
+    public BitWriter(int capacity) {
+        dst = new byte[Math.max(capacity, 8)];
+    }
+
+    /**
+     * write bits to the array
+     *
+     * @param cnt is number of bits to write (1-32)
+     * @param val is source of bits, rightmost bits are written
+     */
+    public void write(int cnt, int val) {
+        ensure(Integer.SIZE / Byte.SIZE);
+        acc = (acc << cnt) | (val & 0xffffffffL & (-1L >>> (Long.SIZE - cnt)));
+        bits += cnt;
+        total += cnt;
+        if (bits >= Integer.SIZE) {
+            bits -= Integer.SIZE;
+            putInt((int) (acc >>> bits));
+        }
+    }
+
+    /**
+     * write the first <code>cnt</code> bits of a byte array, as produced by
+     * another bit writer
+     *
+     * @param src holds the bits to write, leftmost bits first
+     * @param cnt is number of bits to write from <code>src</code>
+     */
+    public void write(byte[] src, long cnt) {
+        int full = (int) (cnt / Byte.SIZE), rest = (int) (cnt % Byte.SIZE), i = 0;
+        if (bits % Byte.SIZE == 0) {
+            spill();
+            ensure(full);
+            System.arraycopy(src, 0, dst, pos, full);
+            pos += full;
+            total += (long) full * Byte.SIZE;
+            i = full;
+        }
+
+        for (; i + 4 <= full; i += 4) {
+            write(Integer.SIZE, (src[i] & 0xff) << 24 | (src[i + 1] & 0xff) << 16
+                    | (src[i + 2] & 0xff) << 8 | (src[i + 3] & 0xff));
+        }
+
+        for (; i < full; i++) {
+            write(Byte.SIZE, src[i]);
+        }
+
+        if (rest > 0) {
+            write(rest, (src[full] & 0xff) >> (Byte.SIZE - rest));
+        }
+    }
+
+    /**
+     * Encodes <code>len</code> bytes of <code>src</code> with a code table.
+     *
+     * @param src holds the symbols to encode
+     * @param off is the index of the first symbol
+     * @param len is the number of symbols
+     * @param codes holds the code of each symbol
+     * @param lengths holds the bit length of each code (1-32)
+     */
+    public void encode(byte[] src, int off, int len, int[] codes, byte[] lengths) {
+        long acc = this.acc, cnt = 0;
+        int bits = this.bits;
+        for (int end = off + len; off < end;) {
+            int chunk = Math.min(end - off, CHUNK);
+            ensure(chunk * (Integer.SIZE / Byte.SIZE));
+            byte[] dst = this.dst;
+            int pos = this.pos;
+            for (int stop = off + chunk; off < stop; off++) {
+                int sym = src[off] & 0xff, l = lengths[sym];
+                acc = (acc << l) | codes[sym] & 0xffffffffL;
+                bits += l;
+                cnt += l;
+                if (bits >= Integer.SIZE) {
+                    bits -= Integer.SIZE;
+                    int w = (int) (acc >>> bits);
+                    dst[pos] = (byte) (w >>> 24);
+                    dst[pos + 1] = (byte) (w >>> 16);
+                    dst[pos + 2] = (byte) (w >>> 8);
+                    dst[pos + 3] = (byte) w;
+                    pos += 4;
+                }
+            }
+
+            this.pos = pos;
+        }
+
+        this.acc = acc;
+        this.bits = bits;
+        total += cnt;
+    }
+
+    /**
+     * Encodes the remaining bytes of <code>src</code> with a code table. The
+     * position of <code>src</code> is not changed.
+     *
+     * @param src holds the symbols to encode, possibly a mapped file region
+     * @param codes holds the code of each symbol
+     * @param lengths holds the bit length of each code (1-32)
+     */
+    public void encode(ByteBuffer src, int[] codes, byte[] lengths) {
+        long acc = this.acc, cnt = 0;
+        int bits = this.bits;
+        for (int off = src.position(), end = src.limit(); off < end;) {
+            int chunk = Math.min(end - off, CHUNK);
+            ensure(chunk * (Integer.SIZE / Byte.SIZE));
+            byte[] dst = this.dst;
+            int pos = this.pos;
+            for (int stop = off + chunk; off < stop; off++) {
+                int sym = src.get(off) & 0xff, l = lengths[sym];
+                acc = (acc << l) | codes[sym] & 0xffffffffL;
+                bits += l;
+                cnt += l;
+                if (bits >= Integer.SIZE) {
+                    bits -= Integer.SIZE;
+                    int w = (int) (acc >>> bits);
+                    dst[pos] = (byte) (w >>> 24);
+                    dst[pos + 1] = (byte) (w >>> 16);
+                    dst[pos + 2] = (byte) (w >>> 8);
+                    dst[pos + 3] = (byte) w;
+                    pos += 4;
+                }
+            }
+
+            this.pos = pos;
+        }
+
+        this.acc = acc;
+        this.bits = bits;
+        total += cnt;
+    }
+
+    /**
+     * Encodes the remaining bytes of <code>src</code> with the code table of
+     * the context of each, the byte before it. The position of
+     * <code>src</code> is not changed.
+     *
+     * @param src holds the symbols to encode
+     * @param prev is the context of the first symbol
+     * @param context holds the index of the table of each context
+     * @param codes holds the code of each symbol by table
+     * @param lengths holds the bit length of each code by table (1-32)
+     * @return the last symbol
+     */
+    public int encode(ByteBuffer src, int prev, byte[] context, int[][] codes,
+            byte[][] lengths) {
+        long acc = this.acc, cnt = 0;
+        int bits = this.bits;
+        for (int off = src.position(), end = src.limit(); off < end;) {
+            int chunk = Math.min(end - off, CHUNK);
+            ensure(chunk * (Integer.SIZE / Byte.SIZE));
+            byte[] dst = this.dst;
+            int pos = this.pos;
+            for (int stop = off + chunk; off < stop; off++) {
+                int sym = src.get(off) & 0xff, table = context[prev] & 0xff;
+                int l = lengths[table][sym];
+                acc = (acc << l) | codes[table][sym] & 0xffffffffL;
+                bits += l;
+                cnt += l;
+                prev = sym;
+                if (bits >= Integer.SIZE) {
+                    bits -= Integer.SIZE;
+                    int w = (int) (acc >>> bits);
+                    dst[pos] = (byte) (w >>> 24);
+                    dst[pos + 1] = (byte) (w >>> 16);
+                    dst[pos + 2] = (byte) (w >>> 8);
+                    dst[pos + 3] = (byte) w;
+                    pos += 4;
+                }
+            }
+
+            this.pos = pos;
+        }
+
+        this.acc = acc;
+        this.bits = bits;
+        total += cnt;
+        return prev;
+    }
+
+    /**
+     * Encodes every <code>step</code>-th of the remaining bytes of
+     * <code>src</code> with a code table, starting with the first one. The
+     * position of <code>src</code> is not changed.
+     *
+     * @param src holds the symbols to encode
+     * @param step is the distance between the symbols to encode
+     * @param codes holds the code of each symbol
+     * @param lengths holds the bit length of each code (1-32)
+     */
+    public void encode(ByteBuffer src, int step, int[] codes, byte[] lengths) {
+        long acc = this.acc, cnt = 0;
+        int bits = this.bits;
+        for (int off = src.position(), end = src.limit(); off < end;) {
+            int chunk = Math.min((end - off + step - 1) / step, CHUNK);
+            ensure(chunk * (Integer.SIZE / Byte.SIZE));
+            byte[] dst = this.dst;
+            int pos = this.pos;
+            for (int i = 0; i < chunk; i++, off += step) {
+                int sym = src.get(off) & 0xff, l = lengths[sym];
+                acc = (acc << l) | codes[sym] & 0xffffffffL;
+                bits += l;
+                cnt += l;
+                if (bits >= Integer.SIZE) {
+                    bits -= Integer.SIZE;
+                    int w = (int) (acc >>> bits);
+                    dst[pos] = (byte) (w >>> 24);
+                    dst[pos + 1] = (byte) (w >>> 16);
+                    dst[pos + 2] = (byte) (w >>> 8);
+                    dst[pos + 3] = (byte) w;
+                    pos += 4;
+                }
+            }
+
+            this.pos = pos;
+        }
+
+        this.acc = acc;
+        this.bits = bits;
+        total += cnt;
+    }
+
+    /**
+     * Pads the pending bits with zeros to a whole byte and moves them to the
+     * array. Writing can continue after a flush, but not bit-aligned.
+     */
+    public void flush() {
+        spill();
+        if (bits > 0) {
+            ensure(1);
+            dst[pos++] = (byte) (acc << (Byte.SIZE - bits));
+            total += Byte.SIZE - bits;
+            bits = 0;
+        }
+    }
+
+    /**
+     * Writes the whole bytes produced so far to <code>out</code> and removes
+     * them from the array. The pending bits of a partial byte are kept.
+     *
+     * @param out is the stream the bytes are written to
+     * @throws IOException
+     */
+    public void drain(OutputStream out) throws IOException {
+        spill();
+        out.write(dst, 0, pos);
+        pos = 0;
+    }
+
+    /**
+     * Writes the whole bytes produced so far to <code>out</code> at
+     * <code>position</code> and removes them from the array. The pending bits
+     * of a partial byte are kept.
+     *
+     * @param out is the channel the bytes are written to
+     * @param position is the file position of the first byte
+     * @return the file position after the last byte
+     * @throws IOException
+     */
+    public long drain(FileChannel out, long position) throws IOException {
+        spill();
+        ByteBuffer buf = buffer();
+        while (buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+
+        pos = 0;
+        return position;
+    }
+
+    /**
+     * Starts over with an empty array, keeping its capacity for reuse.
+     */
+    public void reset() {
+        pos = 0;
+        acc = 0;
+        bits = 0;
+        total = 0;
+    }
+
+    /**
+     * @return the number of bits written since the last reset
+     */
+    public long position() {
+        return total;
+    }
+
+    /**
+     * @return the array holding the bytes, valid up to <code>size</code>
+     */
+    public byte[] array() {
+        return dst;
+    }
+
+    /**
+     * @return the number of whole bytes in the array
+     */
+    public int size() {
+        return pos;
+    }
+
+    /**
+     * @return the bytes in the array as a buffer ready to be read
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(dst, 0, pos);
+    }
+
+    private void spill() {
+        ensure(Long.SIZE / Byte.SIZE);
+        for (; bits >= Byte.SIZE; bits -= Byte.SIZE) {
+            dst[pos++] = (byte) (acc >>> (bits - Byte.SIZE));
+        }
+    }
+
+    private void putInt(int w) {
+        dst[pos] = (byte) (w >>> 24);
+        dst[pos + 1] = (byte) (w >>> 16);
+        dst[pos + 2] = (byte) (w >>> 8);
+        dst[pos + 3] = (byte) w;
+        pos += 4;
+    }
+
+    private void ensure(int cnt) {
+        if (pos + cnt > dst.length) {
+            byte[] grown = new byte[Math.max(2 * dst.length, pos + cnt)];
+            System.arraycopy(dst, 0, grown, 0, pos);
+            dst = grown;
+        }
+    }
+}
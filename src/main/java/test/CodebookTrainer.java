@@ -0,0 +1,79 @@
+package test;
+
+import compr.par.huff.Codebook;
+import compr.par.huff.ParHuffCompressor;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+/**
+ * Trains a codebook on a corpus: a file, or all the files of a directory.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class CodebookTrainer {
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("corpus").withDescription("corpus file or directory (*required)")
+                .create("f");
+        Option fout = OptionBuilder.isRequired(false).hasArg().withArgName("filename")
+                .withLongOpt("output").withDescription("codebook file").create("o");
+        Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
+                .withType(Integer.class).withLongOpt("tasks")
+                .withDescription("number of concurrent tasks").create("t");
+        Option limit = OptionBuilder.isRequired(false).hasArg().withArgName("bits")
+                .withType(Integer.class).withLongOpt("limit")
+                .withDescription("longest code length (9-32)").create("l");
+        Option quiet = OptionBuilder.isRequired(false).hasArg(false).withLongOpt("quiet")
+                .withDescription("indicate only progress").create("q");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(fout);
+        options.addOption(tasks);
+        options.addOption(limit);
+        options.addOption(quiet);
+        CommandLineParser parser = new BasicParser();
+        ParHuffCompressor compr = new ParHuffCompressor();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            TimeLogger.getLogger().setQuiet(cmd.hasOption("q"));
+            String t = cmd.getOptionValue("t");
+            String in = cmd.getOptionValue("f");
+            String out = cmd.getOptionValue("o");
+            out = out == null ? new File(in).getName() + ".hcb" : out;
+            compr.setTasks(t == null ? 1 : Integer.parseInt(t));
+            String l = cmd.getOptionValue("l");
+            if (l != null) {
+                compr.setMaxBits(Integer.parseInt(l));
+            }
+
+            List<File> corpus = new ArrayList<File>();
+            File dir = new File(in);
+            File[] files = dir.isDirectory() ? dir.listFiles() : new File[] {dir};
+            for (File f : files) {
+                if (f.isFile()) {
+                    corpus.add(f);
+                }
+            }
+
+            Codebook book = compr.trainCodebook(corpus.toArray(new File[corpus.size()]));
+            book.write(out);
+            TimeLogger.getLogger().log("Codebook " + book + " saved to file " + out);
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("java CodebookTrainer", "options:", options,
+                    "\nTrain a Huffman codebook on the corpus with -t tasks\n"
+                    + "and save it in the output file.\n");
+        }
+    }
+}
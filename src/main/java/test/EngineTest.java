@@ -0,0 +1,121 @@
+package test;
+
+import compr.par.ParCompressor;
+import compr.par.ParExpander;
+import compr.par.ans.AnsExpander;
+import compr.par.ans.ParAnsCompressor;
+import compr.par.huff.HuffExpander;
+import compr.par.huff.ParHuffCompressor;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+/**
+ * Compares the Huffman and the tANS engines on a file: the ratio and the time
+ * of compression and extraction of each, with the same number of tasks.
+ *
+ * @author Georgi Krastev <joro.kr.21@gmail.com>
+ */
+public class EngineTest {
+
+    private static final int RUNS = 3; // best of
+
+    public static void main(String[] args) {
+        Option fin = OptionBuilder.isRequired().hasArg().withArgName("filename")
+                .withLongOpt("file").withDescription("input file (*required)").create("f");
+        Option tasks = OptionBuilder.isRequired(false).hasArg().withArgName("number")
+                .withType(Integer.class).withLongOpt("tasks")
+                .withDescription("number of concurrent tasks").create("t");
+
+        Options options = new Options();
+        options.addOption(fin);
+        options.addOption(tasks);
+        CommandLineParser parser = new BasicParser();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            String t = cmd.getOptionValue("t");
+            int n = t == null ? 1 : Integer.parseInt(t);
+            File in = new File(cmd.getOptionValue("f"));
+            System.out.printf("%-8s %10s %7s %10s %10s%n",
+                    "engine", "size", "ratio", "compress", "extract");
+            compare("huffman", new ParHuffCompressor(n), new HuffExpander(n), in);
+            compare("tans", new ParAnsCompressor(n), new AnsExpander(n), in);
+        } catch (Exception ex) {
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("java EngineTest", "options:", options,
+                    "\nCompare the ratio and speed of the Huffman and tANS engines\n"
+                    + "on the input file with -t tasks.\n");
+        }
+    }
+
+    private static void compare(String name, ParCompressor compr, ParExpander extr, File in)
+            throws Exception {
+        File packed = File.createTempFile("engine", ".bin");
+        File unpacked = File.createTempFile("engine", ".out");
+        PrintStream out = System.out;
+        try {
+            long compress = Long.MAX_VALUE, extract = Long.MAX_VALUE;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // the timings of the engines are not shown
+                }
+            }));
+            for (int r = 0; r < RUNS; r++) {
+                long start = System.nanoTime();
+                compr.compress(in, packed);
+                long mid = System.nanoTime();
+                extr.expand(packed, unpacked);
+                long end = System.nanoTime();
+                compress = Math.min(compress, mid - start);
+                extract = Math.min(extract, end - mid);
+            }
+
+            System.setOut(out);
+            if (!same(in, unpacked)) {
+                throw new IOException(name + " does not restore " + in.getName());
+            }
+
+            System.out.printf("%-8s %10d %6.2f%% %8.3f s %8.3f s%n", name, packed.length(),
+                    100.0 * packed.length() / Math.max(in.length(), 1),
+                    compress / 1e9, extract / 1e9);
+        } finally {
+            System.setOut(out);
+            packed.delete();
+            unpacked.delete();
+        }
+    }
+
+    private static boolean same(File a, File b) throws IOException {
+        if (a.length() != b.length()) {
+            return false;
+        }
+
+        InputStream in1 = new BufferedInputStream(new FileInputStream(a));
+        InputStream in2 = new BufferedInputStream(new FileInputStream(b));
+        try {
+            for (int c = in1.read(); c >= 0; c = in1.read()) {
+                if (c != in2.read()) {
+                    return false;
+                }
+            }
+
+            return true;
+        } finally {
+            in1.close();
+            in2.close();
+        }
+    }
+}